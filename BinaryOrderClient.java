@@ -0,0 +1,175 @@
+/*
+ * BinaryOrderClient.java
+ * cosa fa questa classe:
+ * - client minimo del protocollo binario di inserimento ordini (shared.OrderEntryProtocol)
+ * - alla connessione manda il byte HELLO, poi solo frame: login/logout come JSON_REQUEST, ordini e
+ *   cancellazioni con i frame binari a layout fisso
+ * - richiesta e risposta usano due ByteBuffer riusati, nessun JSON sul percorso degli ordini
+ * - sincrono: ogni metodo aspetta la sua risposta. I frame JSON non richiesti (market data) vengono stampati;
+ *   un JSON_RESPONSE di errore mentre si aspetta un ack fa fallire la chiamata con una IOException
+ */
+
+package client;
+
+import org.json.JSONObject;
+import shared.OrderEntryProtocol;
+import shared.OrderSide;
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+public class BinaryOrderClient {
+    private Socket socket;
+    private DataInputStream in;
+    private OutputStream out;
+    private long nextRequestId = 1;
+
+    private final ByteBuffer request = ByteBuffer.allocate(OrderEntryProtocol.LENGTH_SIZE + OrderEntryProtocol.MAX_PAYLOAD_SIZE);
+    private final byte[] responseBytes = new byte[OrderEntryProtocol.MAX_PAYLOAD_SIZE];
+    private final ByteBuffer response = ByteBuffer.wrap(responseBytes);
+
+    // fill dell'ultimo execution report ricevuto: prezzo, quantità, orderId della controparte
+    private final List<long[]> lastFills = new ArrayList<>();
+    private int lastRemainingSize;
+
+    public void connect(String host, int port) throws IOException {
+        socket = new Socket(host, port);
+        socket.setTcpNoDelay(true);
+        in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        out = socket.getOutputStream();
+        out.write(OrderEntryProtocol.HELLO & 0xFF);
+        out.flush();
+    }
+
+    // operazioni non binarie (register, login, logout, storico...): JSON dentro un frame
+    public JSONObject sendJson(JSONObject json) throws IOException {
+        request.clear();
+        OrderEntryProtocol.putJson(request, OrderEntryProtocol.JSON_REQUEST, json.toString().getBytes(StandardCharsets.UTF_8));
+        send();
+        while (true) {
+            byte type = readFrame();
+            if (type == OrderEntryProtocol.JSON_RESPONSE) {
+                JSONObject reply = new JSONObject(OrderEntryProtocol.readJson(response));
+                if (!reply.has("type")) { // i messaggi market data hanno "type"
+                    return reply;
+                }
+                System.out.println(reply);
+            }
+        }
+    }
+
+    public long insertLimitOrder(OrderSide side, int size, int price, String symbol, boolean executionReport) throws IOException {
+        return insertOrder(OrderEntryProtocol.INSERT_LIMIT, side, size, price, symbol, executionReport);
+    }
+
+    public long insertMarketOrder(OrderSide side, int size, String symbol, boolean executionReport) throws IOException {
+        return insertOrder(OrderEntryProtocol.INSERT_MARKET, side, size, 0, symbol, executionReport);
+    }
+
+    public long insertStopOrder(OrderSide side, int size, int stopPrice, String symbol, boolean executionReport) throws IOException {
+        return insertOrder(OrderEntryProtocol.INSERT_STOP, side, size, stopPrice, symbol, executionReport);
+    }
+
+    // ritorna l'orderId (-1 = errore). Con executionReport i fill immediati sono in getLastFills()
+    private long insertOrder(byte type, OrderSide side, int size, int price, String symbol, boolean executionReport) throws IOException {
+        long requestId = nextRequestId++;
+        request.clear();
+        int start = OrderEntryProtocol.beginFrame(request, type);
+        request.putLong(requestId);
+        request.put(OrderEntryProtocol.sideCode(side));
+        request.putInt(size);
+        if (type != OrderEntryProtocol.INSERT_MARKET) {
+            request.putInt(price);
+        }
+        OrderEntryProtocol.putSymbol(request, symbol);
+        request.put(executionReport ? OrderEntryProtocol.FLAG_EXECUTION_REPORT : 0);
+        OrderEntryProtocol.endFrame(request, start);
+        send();
+
+        lastFills.clear();
+        while (true) {
+            byte reply = readFrame();
+            if (reply == OrderEntryProtocol.ORDER_ACK || reply == OrderEntryProtocol.EXECUTION_REPORT) {
+                if (response.getLong() != requestId) {
+                    continue; // risposta di un'altra richiesta
+                }
+                long orderId = response.getLong();
+                if (reply == OrderEntryProtocol.EXECUTION_REPORT) {
+                    readExecutionReport();
+                }
+                return orderId;
+            }
+            handleOther(reply);
+        }
+    }
+
+    // true se l'ordine è stato cancellato
+    public boolean cancelOrder(long orderId, String symbol) throws IOException {
+        long requestId = nextRequestId++;
+        request.clear();
+        int start = OrderEntryProtocol.beginFrame(request, OrderEntryProtocol.CANCEL);
+        request.putLong(requestId);
+        request.putLong(orderId);
+        OrderEntryProtocol.putSymbol(request, symbol);
+        OrderEntryProtocol.endFrame(request, start);
+        send();
+
+        while (true) {
+            byte reply = readFrame();
+            if (reply == OrderEntryProtocol.CANCEL_ACK && response.getLong() == requestId) {
+                response.getLong(); // orderId
+                return response.getShort() == 100;
+            }
+            handleOther(reply);
+        }
+    }
+
+    public List<long[]> getLastFills() { return lastFills; }
+    public int getLastRemainingSize() { return lastRemainingSize; }
+
+    public void close() throws IOException {
+        if (socket != null) {
+            socket.close();
+        }
+    }
+
+    private void readExecutionReport() {
+        lastRemainingSize = response.getInt();
+        int count = response.getShort() & 0xFFFF;
+        for (int i = 0; i < count; i++) {
+            lastFills.add(new long[] { response.getInt(), response.getInt(), response.getLong() });
+        }
+    }
+
+    // frame che non è la risposta attesa: market data (hanno "type") vengono stampati. Una risposta JSON
+    // senza "type" è l'errore della richiesta in corso (il server non ne ha letto il requestId)
+    private void handleOther(byte type) throws IOException {
+        if (type != OrderEntryProtocol.JSON_RESPONSE) {
+            return;
+        }
+        JSONObject message = new JSONObject(OrderEntryProtocol.readJson(response));
+        if (!message.has("type")) {
+            throw new IOException("Richiesta rifiutata dal server: " + message.optString("errorMessage", message.toString()));
+        }
+        System.out.println(message);
+    }
+
+    private void send() throws IOException {
+        out.write(request.array(), 0, request.position());
+        out.flush();
+    }
+
+    // legge un frame nel buffer di risposta e ritorna il tipo
+    private byte readFrame() throws IOException {
+        int length = in.readUnsignedShort();
+        in.readFully(responseBytes, 0, length);
+        response.clear().limit(length);
+        return (length == 0) ? 0 : response.get();
+    }
+}
@@ -0,0 +1,46 @@
+/*
+ * BookSide.java
+ * cosa fa questa interfaccia:
+ * - descrive un lato del book (bid, ask, stop bid, stop ask) come insieme ordinato di livelli di prezzo
+ * - l'ordine di scorrimento è quello di priorità: dal prezzo migliore al peggiore
+ * - due implementazioni: TreeMapBookSide (versione originale) e PriceLadderBookSide (array indicizzato per prezzo)
+ * - la scelta avviene da config (book_engine=treemap|ladder), così le due versioni si possono confrontare
+ * - ogni lato tiene la quantità residua totale, aggiornata dai suoi livelli: un market order non eseguibile
+ *   per intero si scarta in O(1) senza toccare gli ordini
+ */
+
+package server;
+
+import shared.*;
+
+public interface BookSide<T extends Order> {
+
+    // livello a questo prezzo, null se non esiste (può essere vuoto)
+    PriceLevel<T> getLevel(int price);
+
+    // livello a questo prezzo, creato se serve. null se il prezzo non è rappresentabile (fuori banda)
+    PriceLevel<T> getOrCreateLevel(int price);
+
+    // da chiamare quando un livello si svuota
+    void removeLevel(int price);
+
+    // livello con il prezzo migliore, null se il lato è vuoto
+    PriceLevel<T> bestLevel();
+
+    // livello successivo (prezzo peggiore) rispetto a quello passato, null se non ce ne sono altri
+    PriceLevel<T> nextLevel(PriceLevel<T> level);
+
+    // true se il prezzo può essere inserito in questo lato
+    boolean accepts(int price);
+
+    boolean isEmpty();
+
+    // quantità residua totale del lato (somma di tutti i livelli), letta in O(1)
+    long totalVolume();
+
+    // chiamato dai PriceLevel del lato quando la loro quantità residua cambia
+    void adjustVolume(long delta);
+
+    // cresce ad ogni modifica del lato (add, fill, cancel): se non cambia, la profondità è la stessa
+    long version();
+}
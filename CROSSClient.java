@@ -1,123 +1,221 @@
-package client;
-
-import java.io.BufferedReader;
-import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.PrintWriter;
-import java.net.Socket;
-import org.json.JSONObject;
-
-import shared.JSONMessage;
-import shared.OrderSide;
-
-public class CROSSClient {
-    private Socket tcpSocket;
-    private Socket udpSocket;
-    private PrintWriter out;
-    private BufferedReader in;
-    private String currentUser;
-    private boolean loggedIn;
-    
-    public boolean connect() {
-        try {
-            String serverAddress = "localhost"; 
-            // Leggi da config (?)
-            int serverPort = 8080; // Leggi da config
-
-            udpSocket = new DatagramSocket();
-             // socket udp per notifiche
-            tcpSocket = new Socket(serverAddress, serverPort);
-            out = new PrintWriter(tcpSocket.getOutputStream(),
-             true);
-            in = new BufferedReader(new 
-            InputStreamReader(tcpSocket.getInputStream()));
-            
-            return true;
-        } catch (IOException e) {
-            System.err.println("Errore di connessione: "
-             + e.getMessage());
-            return false;
-        }
-    }
-    
-    public boolean register(String username, String password) {
-        if (!connect()) return false; 
-        // tenta stabilire connessione tcp con server
-        
-        JSONObject request = JSONMessage.createRegisterMessage
-        (username, password);
-        JSONObject response = sendRequest(request);
-        
-        boolean success = response.getInt("response") == 100;
-        disconnect();
-        return success;
-    }
-    
-    public boolean login(String username, String password) {
-        if (!connect()) return false;
-        
-        JSONObject request = JSONMessage;
-        createLoginMessage(username, password);
-        JSONObject response = sendRequest(request);
-        
-        if (response.getInt("response") == 100) {
-            currentUser = username;
-            loggedIn = true;
-            return true;
-        }
-        return false;
-    }
-    
-    public long insertLimitOrder(String type, 
-    int size, int price) {
-        if (!loggedIn) return -1;
-        
-        OrderSide side = OrderSide.valueOf(type.toUpperCase());
-        // per assicurarsi che input sia esattamente bid o ask e essere 
-        // case insensitive
-        JSONObject request = JSONMessage.
-        createLimitOrderMessage(side, size, price);
-        JSONObject response = sendRequest(request);
-        
-        return response.getLong("orderId");
-    }
-    
-    public void logout() {
-        if (loggedIn) {
-            JSONObject request = new JSONObject();
-            request.put("operation", "logout");
-            request.put("values", new JSONObject()); 
-            // invio un oggetto con values vuoto per consistenza
-            
-            sendRequest(request);
-            loggedIn = false;
-            currentUser = null;
-        }
-        disconnect();
-    }
-    
-    private JSONObject sendRequest(JSONObject request) {
-        try {
-            out.println(request.toString());
-            String responseStr = in.readLine();
-            return new JSONObject(responseStr);
-        } catch (IOException e) {
-            System.err.println("Errore nell'invio della richiesta: " + e.getMessage());
-            return new JSONObject().put("response", -1);
-        }
-    }
-    
-    public void disconnect() {
-        try {
-            if (out != null) out.close();
-            if (in != null) in.close();
-            if (tcpSocket != null) tcpSocket.close();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-    }
-    
-    public boolean isLoggedIn() {
-        return loggedIn;
-    }
+package client;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import org.json.JSONObject;
+
+import shared.JSONMessage;
+import shared.OrderSide;
+
+public class CROSSClient {
+    private Socket tcpSocket;
+    private Socket udpSocket;
+    private PrintWriter out;
+    private BufferedReader in;
+    private String currentUser;
+    private boolean loggedIn;
+
+    // pipelining: ogni richiesta ha un requestId che il server rimette nella risposta, così si possono
+    // mandare più richieste senza aspettare. Le risposte le legge il thread responseReader
+    private final AtomicLong nextRequestId = new AtomicLong(1);
+    private final Map<Long, CompletableFuture<JSONObject>> pendingRequests = new ConcurrentHashMap<>();
+    private Thread responseReader;
+    
+    public boolean connect() {
+        try {
+            String serverAddress = "localhost"; 
+            // Leggi da config (?)
+            int serverPort = 8080; // Leggi da config
+
+            udpSocket = new DatagramSocket();
+             // socket udp per notifiche
+            tcpSocket = new Socket(serverAddress, serverPort);
+            out = new PrintWriter(tcpSocket.getOutputStream(),
+             false); // flush esplicito dopo ogni gruppo di richieste
+            in = new BufferedReader(new 
+            InputStreamReader(tcpSocket.getInputStream()));
+
+            responseReader = new Thread(this::readResponses, "cross-client-reader");
+            responseReader.setDaemon(true);
+            responseReader.start();
+            
+            return true;
+        } catch (IOException e) {
+            System.err.println("Errore di connessione: "
+             + e.getMessage());
+            return false;
+        }
+    }
+    
+    public boolean register(String username, String password) {
+        if (!connect()) return false; 
+        // tenta stabilire connessione tcp con server
+        
+        JSONObject request = JSONMessage.createRegisterMessage
+        (username, password);
+        JSONObject response = sendRequest(request);
+        
+        boolean success = response.getInt("response") == 100;
+        disconnect();
+        return success;
+    }
+    
+    public boolean login(String username, String password) {
+        if (!connect()) return false;
+        
+        JSONObject request = JSONMessage;
+        createLoginMessage(username, password);
+        JSONObject response = sendRequest(request);
+        
+        if (response.getInt("response") == 100) {
+            currentUser = username;
+            loggedIn = true;
+            return true;
+        }
+        return false;
+    }
+    
+    public long insertLimitOrder(String type, 
+    int size, int price) {
+        if (!loggedIn) return -1;
+        
+        OrderSide side = OrderSide.valueOf(type.toUpperCase());
+        // per assicurarsi che input sia esattamente bid o ask e essere 
+        // case insensitive
+        JSONObject request = JSONMessage.
+        createLimitOrderMessage(side, size, price);
+        JSONObject response = sendRequest(request);
+        
+        return response.getLong("orderId");
+    }
+    
+    // inserisce più ordini limit in pipeline: tutte le richieste partono insieme, poi si aspettano le risposte
+    // (un solo round trip invece di uno per ordine). Ritorna gli orderId nello stesso ordine (-1 = errore)
+    public long[] insertLimitOrders(String type, int[] sizes, int[] prices) {
+        long[] orderIds = new long[sizes.length];
+        if (!loggedIn) {
+            Arrays.fill(orderIds, -1);
+            return orderIds;
+        }
+
+        OrderSide side = OrderSide.valueOf(type.toUpperCase());
+        List<JSONObject> requests = new ArrayList<>();
+        for (int i = 0; i < sizes.length; i++) {
+            requests.add(JSONMessage.createLimitOrderMessage(side, sizes[i], prices[i]));
+        }
+        List<CompletableFuture<JSONObject>> responses = sendRequests(requests);
+        for (int i = 0; i < orderIds.length; i++) {
+            orderIds[i] = waitResponse(responses.get(i)).optLong("orderId", -1);
+        }
+        return orderIds;
+    }
+    
+    public void logout() {
+        if (loggedIn) {
+            JSONObject request = new JSONObject();
+            request.put("operation", "logout");
+            request.put("values", new JSONObject()); 
+            // invio un oggetto con values vuoto per consistenza
+            
+            sendRequest(request);
+            loggedIn = false;
+            currentUser = null;
+        }
+        disconnect();
+    }
+    
+    private JSONObject sendRequest(JSONObject request) {
+        return waitResponse(sendRequestAsync(request));
+    }
+
+    // manda la richiesta senza aspettare la risposta
+    public CompletableFuture<JSONObject> sendRequestAsync(JSONObject request) {
+        List<JSONObject> requests = new ArrayList<>();
+        requests.add(request);
+        return sendRequests(requests).get(0);
+    }
+
+    // manda più richieste con un solo flush; le risposte arrivano nello stesso ordine
+    public List<CompletableFuture<JSONObject>> sendRequests(List<JSONObject> requests) {
+        List<CompletableFuture<JSONObject>> responses = new ArrayList<>();
+        synchronized (out) {
+            for (JSONObject request : requests) {
+                long requestId = nextRequestId.getAndIncrement();
+                CompletableFuture<JSONObject> response = new CompletableFuture<>();
+                pendingRequests.put(requestId, response);
+                request.put("requestId", requestId);
+                out.println(request.toString());
+                responses.add(response);
+            }
+            out.flush();
+        }
+        if (out.checkError()) {
+            failPendingRequests(new IOException("scrittura sulla socket fallita"));
+        }
+        return responses;
+    }
+
+    private JSONObject waitResponse(CompletableFuture<JSONObject> response) {
+        try {
+            return response.get();
+        } catch (ExecutionException | InterruptedException e) {
+            System.err.println("Errore nell'invio della richiesta: " + e.getMessage());
+            return new JSONObject().put("response", -1);
+        }
+    }
+
+    // thread che legge le risposte e le abbina alle richieste tramite requestId
+    private void readResponses() {
+        try {
+            String line;
+            while ((line = in.readLine()) != null) {
+                JSONObject response = new JSONObject(line);
+                if (!response.has("requestId")) {
+                    System.out.println(line); // messaggio non richiesto (es. market data)
+                    continue;
+                }
+                CompletableFuture<JSONObject> pending = pendingRequests.remove(response.getLong("requestId"));
+                if (pending != null) {
+                    pending.complete(response);
+                }
+            }
+            failPendingRequests(new IOException("connessione chiusa dal server"));
+        } catch (Exception e) {
+            failPendingRequests(e);
+        }
+    }
+
+    private void failPendingRequests(Exception cause) {
+        for (Long requestId : pendingRequests.keySet()) {
+            CompletableFuture<JSONObject> pending = pendingRequests.remove(requestId);
+            if (pending != null) {
+                pending.completeExceptionally(cause);
+            }
+        }
+    }
+    
+    public void disconnect() {
+        try {
+            if (out != null) out.close();
+            if (tcpSocket != null) tcpSocket.close(); // sblocca il thread responseReader
+            if (in != null) in.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+    
+    public boolean isLoggedIn() {
+        return loggedIn;
+    }
 }
\ No newline at end of file
@@ -1,104 +1,223 @@
-
-/*
- * CROSSServer.java
- * cosa fa questa classe:
- * - gestisce le funzionalità principali del server CROSS   
- * - mantiene istanze di UserManager, OrderBook, TradeManager e NotificationService
- * - fornisce metodi per la registrazione, login, logout degli utenti, chiamando il servizio e handler giusto 
- */
-
- //gestisce numerazione ordini, chiama inactivity timer, tiene riferimenti a orderbook e notificationservice, userManager
- // guarda anche se deve tenere notificationservice
-
-package server;
-
-import shared.*;
-import org.json.JSONObject;
-import java.net.InetAddress;
-import java.util.*;
-import java.util.concurrent.atomic.AtomicLong;
-
-public class CROSSServer {
-    private UserManager userManager;
-    private OrderBook orderBook;
-    private PersistenceManager persistenceManager;
-    private NotificationService notificationService;
-    private AtomicLong orderIdGenerator;
-    private Timer periodicTimer;
-    
-    public CROSSServer() {
-        this.userManager = new UserManager("data/users.json", persistenceManager, notificationService);
-        this.orderBook = new OrderBook(persistenceManager, notificationService);
-        this.orderIdGenerator = new AtomicLong(1000);
-        
-        // startPeriodicChecks(); non penso serva
-
-        System.out.println("CROSSServer inizializzato");
-    }
-    
-    // === GESTIONE UTENTI ===  chiama i vari metodi su usermanager
-	    public int registerUser(String username, String password) {
-	        return userManager.registerUser(username, password);
-	    }
-	    public int loginUser(String username, String password, Socket socket, int udpPort) {
-	        return userManager.loginUser(username, password, socket, udpPort);
-	    }
-	    public int logoutUser(String username) {
-	        return userManager.logoutUser(username);
-	    }
-        public int updateCredentials(String username, String currentPassword, String newPassword) {
-            return userManager.updateCredentials(username, currentPassword, newPassword);
-        }
-
-    
-    // ========================= GESTIONE ORDINI ===============
-    
-    
-    public long insertLimitOrder(String username, OrderSide side,
-     int size, int price) {
-            // numero ordine
-            long orderId = orderIdGenerator.getAndIncrement();
-            // creo ordine
-            LimitOrder limitOrder = new LimitOrder(orderId, username, side, size, price);
-            
-            // lo aggiungo ai limitorder
-            boolean added = orderBook.addLimitOrder(limitOrder);
-            
-            if (added) {
-                // Esegui matching immediato dei limit order (non penso serva (?))
-                orderBook.matchLimitOrders();
-                return orderId;
-            } else {
-                return -1;
-            }
-    }
-    
-    public long insertMarketOrder(String username, OrderSide side, int size) {
-        userManager.startInactivityTimer(username);
-            long orderId = orderIdGenerator.getAndIncrement();
-            MarketOrder marketOrder = new MarketOrder(orderId, username, side, size);
-            boolean executed = orderBook.executeMarketOrder(marketOrder);
-            return executed ? orderId : -1;
-    
-    }
-    
-    public long insertStopOrder(String username, OrderSide side, int size, int stopPrice) {
-        userManager.startInactivityTimer(username);
-            long orderId = orderIdGenerator.getAndIncrement();
-            StopOrder stopOrder = new StopOrder(orderId, username, 
-            side, size, stopPrice);
-            
-            orderBook.addStopOrder(stopOrder);
-            return orderId;
-    }
-    
-    public boolean cancelOrder(String username, long orderId) {
-        userManager.startInactivityTimer(username);
-            return orderBook.cancelOrder(orderId, username);
-    }
-    
-    public JSONObject getPriceHistory(String month) {
-        // Delega la richiesta al PersistenceManager
-        return persistenceManager.getPriceHistory(month);
-    }
-}
+
+/*
+ * CROSSServer.java
+ * cosa fa questa classe:
+ * - gestisce le funzionalità principali del server CROSS   
+ * - mantiene istanze di UserManager, OrderBookRegistry (un OrderBook per simbolo) e NotificationService
+ * - fornisce metodi per la registrazione, login, logout degli utenti, chiamando il servizio e handler giusto 
+ */
+
+ //gestisce numerazione ordini, chiama inactivity timer, tiene riferimenti a orderbook e notificationservice, userManager
+ // guarda anche se deve tenere notificationservice
+
+package server;
+
+import shared.*;
+import org.json.JSONObject;
+import java.net.InetAddress;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class CROSSServer {
+    private UserManager userManager;
+    private OrderBookRegistry orderBooks; // un book per strumento, chiave = simbolo
+    private NotificationService notificationService;
+    private MarketDataPublisher marketDataPublisher; // sottoscrizioni market data via TCP
+    private MulticastFeedPublisher multicastFeed;    // feed pubblico UDP multicast, null se disattivato
+    private SessionTimerWheel sessionTimers;         // un solo timer per inattività e controllo connessione
+    private AtomicLong orderIdGenerator;
+    private Timer periodicTimer;
+    
+    public CROSSServer() {
+        // la persistenza degli ordini è per strumento (vedi OrderBookRegistry)
+        this.userManager = new UserManager(null);
+        this.notificationService = new NotificationService(userManager);
+        this.orderBooks = new OrderBookRegistry(userManager, notificationService);
+        this.marketDataPublisher = new MarketDataPublisher(orderBooks);
+        this.multicastFeed = MulticastFeedPublisher.fromConfig(orderBooks);
+        this.sessionTimers = SessionTimerWheel.fromConfig();
+        this.orderIdGenerator = new AtomicLong(1000);
+        
+        // startPeriodicChecks(); non penso serva
+
+        System.out.println("CROSSServer inizializzato");
+    }
+    
+    public String getDefaultSymbol() {
+        return orderBooks.getDefaultSymbol();
+    }
+
+    public SessionTimerWheel getSessionTimers() {
+        return sessionTimers;
+    }
+
+    // === GESTIONE UTENTI ===  chiama i vari metodi su usermanager
+	    public int registerUser(String username, String password) {
+	        return userManager.registerUser(username, password);
+	    }
+	    public int loginUser(String username, String password, InetAddress address, int udpPort) {
+	        return userManager.loginUser(username, password, address, udpPort);
+	    }
+	    public int logoutUser(String username) {
+	        notificationService.closeSession(username);
+	        return userManager.logoutUser(username);
+	    }
+        public int updateCredentials(String username, String currentPassword, String newPassword) {
+            return userManager.updateCredentials(username, currentPassword, newPassword);
+        }
+
+    
+    // ========================= GESTIONE ORDINI ===============
+    
+    
+    // tutti i metodi sugli ordini ritornano -1 / false anche se il simbolo non è trattato
+    // report (può essere null): se presente viene riempito con i fill immediati dell'ordine
+    public long insertLimitOrder(String username, String symbol, OrderSide side,
+     int size, int price, ExecutionReport report) {
+            OrderEntry orderEntry = orderBooks.getOrderEntry(symbol);
+            if (orderEntry == null) return -1;
+            // numero ordine
+            long orderId = orderIdGenerator.getAndIncrement();
+            // creo ordine
+            LimitOrder limitOrder = new LimitOrder(orderId, username, side, size, price);
+            if (report != null) report.setOrderId(orderId);
+            
+            // lo aggiungo ai limitorder (il matching parte già dentro addLimitOrder)
+            boolean added = orderEntry.addLimitOrder(limitOrder, report);
+            
+            if (added) {
+                return orderId;
+            } else {
+                return -1;
+            }
+    }
+    
+    public long insertMarketOrder(String username, String symbol, OrderSide side, int size, ExecutionReport report) {
+            OrderEntry orderEntry = orderBooks.getOrderEntry(symbol);
+            if (orderEntry == null) return -1;
+            long orderId = orderIdGenerator.getAndIncrement();
+            MarketOrder marketOrder = new MarketOrder(orderId, username, side, size);
+            if (report != null) report.setOrderId(orderId);
+            boolean executed = orderEntry.executeMarketOrder(marketOrder, report);
+            return executed ? orderId : -1;
+    
+    }
+    
+    public long insertStopOrder(String username, String symbol, OrderSide side, int size, int stopPrice, ExecutionReport report) {
+            OrderEntry orderEntry = orderBooks.getOrderEntry(symbol);
+            if (orderEntry == null) return -1;
+            long orderId = orderIdGenerator.getAndIncrement();
+            StopOrder stopOrder = new StopOrder(orderId, username, 
+            side, size, stopPrice);
+            if (report != null) report.setOrderId(orderId);
+            
+            boolean added = orderEntry.addStopOrder(stopOrder, report);
+            return added ? orderId : -1;
+    }
+    
+    public boolean cancelOrder(String username, String symbol, long orderId) {
+            OrderEntry orderEntry = orderBooks.getOrderEntry(symbol);
+            if (orderEntry == null) return false;
+            return orderEntry.cancelOrder(orderId, username) == 100;
+    }
+    
+    // insertOrders / cancelOrders: gli elementi vengono divisi per simbolo e ogni book applica i suoi
+    // in un solo turno. I risultati sono negli elementi (orderId o -1, 100 o 101); simbolo non trattato = errore
+    public void applyOrderBatch(String username, OrderBatch batch) {
+        Map<OrderEntry, List<OrderBatch.Item>> byBook = new LinkedHashMap<>();
+        for (OrderBatch.Item item : batch.getItems()) {
+            OrderEntry orderEntry = orderBooks.getOrderEntry(item.symbol);
+            if (orderEntry == null) continue;
+
+            if (item.type != OrderBatch.CANCEL) {
+                long orderId = orderIdGenerator.getAndIncrement();
+                item.orderId = orderId;
+                if (item.type == OrderBatch.LIMIT) {
+                    item.order = new LimitOrder(orderId, username, item.side, item.size, item.price);
+                } else if (item.type == OrderBatch.MARKET) {
+                    item.order = new MarketOrder(orderId, username, item.side, item.size);
+                } else {
+                    item.order = new StopOrder(orderId, username, item.side, item.size, item.price);
+                }
+                if (item.report != null) item.report.setOrderId(orderId);
+            }
+            byBook.computeIfAbsent(orderEntry, k -> new ArrayList<>()).add(item);
+        }
+        for (Map.Entry<OrderEntry, List<OrderBatch.Item>> entry : byBook.entrySet()) {
+            entry.getKey().applyBatch(entry.getValue(), username);
+        }
+    }
+
+    // ordini limit e stop ancora aperti dell'utente; symbol null = tutti i simboli. null se il simbolo non è trattato
+    public List<OpenOrder> listOpenOrders(String username, String symbol) {
+        List<OpenOrder> openOrders = new ArrayList<>();
+        if (symbol != null) {
+            OrderEntry orderEntry = orderBooks.getOrderEntry(symbol);
+            if (orderEntry == null) return null;
+            orderEntry.listOpenOrders(username, openOrders);
+            return openOrders;
+        }
+        for (String bookSymbol : orderBooks.getSymbols()) {
+            orderBooks.getOrderEntry(bookSymbol).listOpenOrders(username, openOrders);
+        }
+        return openOrders;
+    }
+
+    // cancella tutti gli ordini aperti dell'utente; symbol null = tutti i simboli.
+    // Ritorna quanti ordini ha cancellato, -1 se il simbolo non è trattato
+    public int cancelAllOrders(String username, String symbol) {
+        if (symbol != null) {
+            OrderEntry orderEntry = orderBooks.getOrderEntry(symbol);
+            if (orderEntry == null) return -1;
+            return orderEntry.cancelAllOrders(username);
+        }
+        int cancelled = 0;
+        for (String bookSymbol : orderBooks.getSymbols()) {
+            cancelled += orderBooks.getOrderEntry(bookSymbol).cancelAllOrders(username);
+        }
+        return cancelled;
+    }
+    
+    public JSONObject getPriceHistory(String symbol, String month) {
+        // Delega la richiesta al PersistenceManager dello strumento
+        PersistenceManager persistenceManager = orderBooks.getPersistenceManager(symbol);
+        if (persistenceManager == null) {
+            JSONObject error = new JSONObject();
+            error.put("status", "ERROR");
+            error.put("message", "Simbolo non trattato: " + symbol);
+            return error;
+        }
+        return persistenceManager.getPriceHistory(month);
+    }
+
+    // recupero delle notifiche UDP perse, dal buffer della sessione
+    public JSONObject resendNotifications(String username, long fromSeq) {
+        return notificationService.resendNotifications(username, fromSeq);
+    }
+
+    // ========================= MARKET DATA ===============
+
+    public boolean subscribeMarketData(ClientHandler client, String symbol) {
+        return marketDataPublisher.subscribe(client, symbol);
+    }
+
+    public boolean unsubscribeMarketData(ClientHandler client, String symbol) {
+        return marketDataPublisher.unsubscribe(client, symbol);
+    }
+
+    public void unsubscribeAllMarketData(ClientHandler client) {
+        marketDataPublisher.unsubscribeAll(client);
+    }
+
+    // profondità del book: legge l'ultima fotografia pubblicata, non passa dal matching
+    public JSONObject getOrderBook(String symbol, int levels) {
+        OrderBook orderBook = orderBooks.getOrderBook(symbol);
+        if (orderBook == null) {
+            JSONObject error = new JSONObject();
+            error.put("status", "ERROR");
+            error.put("message", "Simbolo non trattato: " + symbol);
+            return error;
+        }
+        return orderBook.getDepthSnapshot().toJSON(symbol, levels);
+    }
+}
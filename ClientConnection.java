@@ -0,0 +1,29 @@
+/*
+ * ClientConnection.java
+ * cosa fa questa interfaccia:
+ * - la connessione TCP di un client vista dal ClientHandler: indirizzo, scrittura di righe, chiusura
+ * - due implementazioni: SocketConnection (socket bloccante, un thread per connessione)
+ *   e NioServer.NioConnection (canale non bloccante gestito dai thread selector)
+ * - così la logica delle richieste nel ClientHandler è la stessa per entrambe le modalità (config network_mode)
+ */
+
+package server;
+
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+
+public interface ClientConnection {
+
+    InetAddress getRemoteAddress();
+
+    boolean isOpen();
+
+    // scrive una o più righe già terminate da \n, thread safe. false se la connessione non è più utilizzabile
+    boolean write(String lines);
+
+    // scrive i byte rimasti di data (frame del protocollo binario), thread safe. Il chiamante può riusare
+    // il buffer appena il metodo ritorna
+    boolean write(ByteBuffer data);
+
+    void close();
+}
@@ -1,552 +1,1107 @@
-
-/*
-  cosa fa nella pratica questa classe:
-  - gestisce la comunicazione con un singolo client tramite socket TCP
-    - riceve richieste JSON dal client, le elabora chiamando  crossserver e invia risposte JSON
-    - supporta operazioni come registrazione, login, logout, inserimento e cancellazione ordini,
-      e richiesta della cronologia dei prezzi
-      - nota: clienthandler richiama il timer di inattività in usermanager per resettarlo ad ogni operazione
-    - si occcupa anche di controllare se utente è loggato o meno e di far ripartire il timer di inattività
-  
- */
-
- // devi rivedere getpricehistory
-
-
-package server;
-
-import shared.*;
-import server.*;
-// aggiungi json message (?)
-import org.json.JSONObject;
-import java.io.*;
-import java.net.Socket;
-import java.util.Timer;
-import java.util.TimerTask;
-
-public class ClientHandler implements Runnable 
-{
-    private Socket clientSocket;
-    private CROSSServer crossServer;
-    private String currentUser;
-    private BufferedReader in;
-    private PrintWriter out;
-    private Timer inactivityTimer;
-    private Timer connectionTimer;
-    private static final long INACTIVITY_TIMEOUT; // 30 minuti
-    private static final long CONNECTION_CHECK_INTERVAL; // 30 secondi
-    
-    public ClientHandler(Socket socket, CROSSServer server) {
-        this.clientSocket = socket;
-        this.crossServer = server;
-        this.INACTIVITY_TIMEOUT = readInactivityTimeoutFromConfig();
-        this.CONNECTION_CHECK_INTERVAL = readConnectionCheckIntervalFromConfig();
-    }
-
-
-    private long readConnectionCheckIntervalFromConfig() {
-        try {
-            String value = readConfigValue("connection_check_interval");
-            if (value != null) {
-                return Long.parseLong(value);
-            }
-        } catch (Exception e) {
-            System.err.println("Errore lettura connection_check_interval da config: " + e.getMessage());
-        }
-        return CONNECTION_CHECK_INTERVAL;
-    }
-
-    private static long readInactivityTimeoutFromConfig() {
-        try {
-            String value = readConfigValue("inactivity_timeout");
-            if (value != null) {
-                return Long.parseLong(value);
-            }
-        } catch (Exception e) {
-            System.err.println("Errore lettura inactivity_timeout da config: " + e.getMessage());
-        }
-        return INACTIVITY_TIMEOUT;
-    }
-
-    
-
-    private static String readConfigValue(String key) {
-        try {
-            Path configPath = Paths.get(CONFIG_FILE);
-            if (!Files.exists(configPath)) {
-                System.err.println("File config non trovato: " + CONFIG_FILE + ". Usando valori default.");
-                return null;
-            }
-            
-            List<String> lines = Files.readAllLines(configPath);
-            for (String line : lines) {
-                line = line.trim();
-                
-                // Salta commenti e linee vuote
-                if (line.isEmpty() || line.startsWith("#")) {
-                    continue;
-                }
-                
-                // Cerca chiave=valore
-                if (line.startsWith(key + "=")) {
-                    return line.substring(key.length() + 1).trim();
-                }
-            }
-            
-            System.err.println("Chiave '" + key + "' non trovata nel config");
-            
-        } catch (Exception e) {
-            System.err.println("Errore lettura file config '" + CONFIG_FILE + "': " + e.getMessage());
-        }
-        
-        return null;
-    }
-
-    @Override
-    public void run() {
-        System.out.println("ClientHandler avviato per: " + clientSocket.getInetAddress());
-        
-        try (
-                BufferedReader reader = new BufferedReader(new InputStreamReader(clientSocket.getInputStream())); PrintWriter writer = new PrintWriter(clientSocket.getOutputStream(), true)) 
-            {
-                this.in = reader;
-                this.out = writer;
-                
-                String inputLine;
-                while ((inputLine = in.readLine()) != null) {
-                    JSONObject request = new JSONObject(inputLine);
-                    startInactivityTimer();
-                    
-                    JSONObject response = processRequest(request);
-                    out.println(response.toString());
-
-                }
-                
-            }
-         catch(IOException e) {
-            System.err.println("Errore nella gestione del client: " + e.getMessage());
-        } finally { 
-            // chiudo la disconnessione
-            closeConnection();
-        }
-    }
-
-
-    private void closeConnection() 
-    {
-        try {
-            if (clientSocket != null && !clientSocket.isClosed()) {
-                clientSocket.close();
-                System.out.println("Connessione chiusa: " + clientSocket.getInetAddress());
-            }
-        } catch (IOException e) {
-            System.err.println("Errore chiusura socket: " + e.getMessage());
-        }
-    }
-    
-    private JSONObject processRequest(JSONObject request) {
-        try {
-            String operation = JSONMessage.getOperation(request);
-            JSONObject values = request.getJSONObject("values");
-            String username = values.getString("username");
-            
-            switch (operation) {
-                case "register":
-                    return handleRegister(values);
-                    
-                case "login":
-                    return handleLogin(values);
-                    
-                case "logout":
-                    return handleLogout();
-
-                case "updateCredentials":
-                    return handleUpdateCredentials(values);
-                    
-                case "insertLimitOrder":
-                    return handleInsertLimitOrder(values);
-                    
-                case "insertMarketOrder":
-                    return handleInsertMarketOrder(values);
-                    
-                case "insertStopOrder":
-                    return handleInsertStopOrder(values);
-                    
-                case "cancelOrder":
-                    return handleCancelOrder(values);
-                    
-                case "getPriceHistory":
-                    return handleGetPriceHistory(values);
-                    
-                default:
-                    return createErrorResponse("Operazione non supportata: " + operation);
-            }
-            
-        } catch (Exception e) {
-            return createErrorResponse("Errore nel processamento: " + e.getMessage());
-        }
-    }
-    
-    private JSONObject handleRegister(JSONObject values) 
-    {
-        String username = values.getString("username");
-        String password = values.getString("password");
-        
-        int result = crossServer.registerUser(username, password);
-        
-        JSONObject response = new JSONObject();
-        response.put("response", result);
-        
-        switch (result) {
-            case 100: break; // OK
-            case 101: response.put("errorMessage", "invalid password"); break;
-            case 102: response.put("errorMessage", "username not available"); break;
-            default: response.put("errorMessage", "other error cases");
-        }
-        
-        return response;
-    }
-    
-    private JSONObject handleLogin(JSONObject values) {
-        JSONObject response = new JSONObject();
-        if(currentUser != null)
-        {
-            response.put("response", 102);
-            response.put("errorMessage", "user already logged");
-            return response;
-        }
-
-        String username = values.getString("username");
-        String password = values.getString("password");
-        int udpPort = values.optInt("udpPort", -1);
-        int result = crossServer.loginUser(username, password, clientSocket, udpPort);
-
-        response.put("response", result);
-        
-        if (result == 101) {
-            response.put("errorMessage", "username/password mismatch or non existent username");
-        }
-        if (result == 103) {
-            response.put("errorMessage", "other error cases");
-        }
-        else
-        {
-            this.currentUser = username; // salva l'utente loggato
-            startConnectionCheckTimer(); // faccio partire controlli periodici di connessione
-        }
-        
-        return response;
-    }
-    
-    private JSONObject handleLogout() 
-    {
-        JSONObject response = new JSONObject();
-        if(currentUser == null)
-        {
-            response.put("response", 104);
-            response.put("errorMessage", "user not logged in");
-            return response;
-        }
-        
-            int risultato = crossServer.logoutUser(currentUser);
-            
-            if (risultato == 100) {
-                response.put("response", 100);
-                this.currentUser= null;
-                stopAllTimers();
-            } else 
-            {
-                response.put("response", 101);
-                response.put("errorMessage", "other error cases");
-            }
-
-        return response;
-    }
-
-    private JSONObject handleUpdateCredentials(JSONObject values) 
-    {
-
-        JSONObject response = new JSONObject();
-        if (currentUser != null) // se utente è loggato
-        {
-            response.put("response", 104);
-            response.put("errorMessage", "user currently logged");
-            return response;
-        }
-
-        String username = values.getString("username");
-        String oldPassword = values.getString("old_password");
-        String newPassword = values.getString("new_password");
-        
-        // Chiama il metodo del server
-        int result = crossServer.updateCredentials(username, oldPassword, newPassword);
-        
-        // Costruisce la risposta JSON in base al codice
-        response.put("response", result);
-        
-        switch (result) {
-            case 100: // OK
-                // Nessun messaggio aggiuntivo necessario per successo
-                break;
-                
-            case 101: // invalid new password
-                response.put("errorMessage", "invalid new password");
-                break;
-                
-            case 102: // username/old_password mismatch or non existent username
-                response.put("errorMessage", "username/old_password mismatch or non existent username");
-                break;
-                
-            case 103: // new password equal to old one
-                response.put("errorMessage", "new password equal to old one");
-                break;
-                
-            case 105: // other error cases
-            default:
-                response.put("errorMessage", "other error cases");
-                break;
-        }
-        
-        return response;
-    }
-    
-    private JSONObject handleInsertLimitOrder(JSONObject values) 
-    {
-        JSONObject response = new JSONObject();
-        if (currentUser == null) {
-            response.put("orderId", -1);
-            return response;
-        }
-        
-        String type = values.getString("type");
-        int size = values.getInt("size");
-        int price = values.getInt("price");
-        
-        try {
-            OrderSide side = OrderSide.valueOf(type.toUpperCase());
-            long orderId = crossServer.insertLimitOrder(currentUser, side, size, price);
-            response.put("orderId", orderId); // sarà -1 in caso di errore
-            return response;
-            
-        } catch (IllegalArgumentException e) {
-            response.put("orderId", -1);
-            return response;
-        }
-    }
-    
-    private JSONObject handleInsertMarketOrder(JSONObject values) 
-    {
-        JSONObject response = new JSONObject();
-        if (currentUser == null) {
-            response.put("orderId", -1); // utente non loggato
-            return response;
-        }
-        
-        String type = values.getString("type");
-        int size = values.getInt("size");
-        
-        try {
-            OrderSide side = OrderSide.valueOf(type.toUpperCase());
-            long orderId = crossServer.insertMarketOrder(currentUser, side, size);
-            response.put("orderId", orderId);
-            return response;
-            
-        } catch (IllegalArgumentException e) {
-            response.put("orderId", -1);
-            return response;
-        }
-    }
-    
-    private JSONObject handleInsertStopOrder(JSONObject values) 
-    {
-        JSONObject response = new JSONObject();
-        if (currentUser == null) {
-            response.put("orderId", -1); // utente non loggato
-            return response;
-        }
-        
-        String type = values.getString("type");
-        int size = values.getInt("size");
-        int price = values.getInt("price");
-        
-        try {
-            OrderSide side = OrderSide.valueOf(type.toUpperCase());
-            long orderId = crossServer.insertStopOrder(currentUser, side, size, price);
-            response.put("orderId", orderId);
-            return response;
-            
-        } catch (IllegalArgumentException e) {
-            response.put("orderId", -1);
-            return response;
-        }
-    }
-    
-    private JSONObject handleCancelOrder(JSONObject values) 
-    {
-        if (currentUser == null) {
-            JSONObject response = new JSONObject();
-            response.put("response", 101);
-            response.put("errorMessage", "Utente non autenticato");
-            return response;
-        }
-        
-        long orderId = values.getLong("orderId");
-        
-        // Il controllo che l'ordine appartenga all'utente corrente 
-        // viene fatto nel crossServer.cancelOrder
-        boolean success = crossServer.cancelOrder(orderId, currentUser);
-        
-        JSONObject response = new JSONObject();
-        if (success) {
-            response.put("response", 100); // OK
-            // Non mettere errorMessage in caso di successo
-        } else {
-            response.put("response", 101);
-            response.put("errorMessage", "order does not exist or belongs to different user or has already been finalized or other error cases");
-        }
-        
-        return response;
-    }
-
-
-    
-    private JSONObject handleGetPriceHistory(JSONObject values) {
-        if (currentUser == null) {
-            return createErrorResponse("Utente non autenticato");
-        }
-        
-        String month = values.getString("month");
-        JSONObject history = crossServer.getPriceHistory(month);
-        
-        JSONObject response = new JSONObject();
-        response.put("history", history);
-        return response;
-    }
-    
-    private JSONObject createErrorResponse(String errorMessage) {
-        JSONObject response = new JSONObject();
-        response.put("response", -1);
-        response.put("errorMessage", errorMessage);
-        return response;
-    }
-    
-    private void cleanup() {
-        if (currentUser != null) {
-            crossServer.logoutUser(currentUser);
-            this.currentUser=null;
-            System.out.println("Client disconnesso: " + currentUser);
-
-        }
-        
-        try {
-            // se la socket non è chiusa (?)
-            clientSocket.close();
-        } catch (IOException e) {
-            System.err.println("Errore nella chiusura del socket: " + e.getMessage());
-        }
-    }
-
-// =============================================== CONTROLLI DI INATTIVITà ========================
-
-    private void startInactivityTimer() {
-        // Cancella timer esistente
-        if (inactivityTimer != null) {
-            inactivityTimer.cancel();
-        }
-
-        if (currentUser == null) {
-            return; // Non avviare il timer se nessun utente è loggato
-        }
-
-        this.inactivityTimer = new Timer(true);
-        TimerTask inactivityTask = new TimerTask() // riguardalo per capirlo bene (?)
-        {
-            @Override
-            public void run() {
-                handleInactivityTimeout();
-            }
-        };
-        inactivityTimer.schedule(inactivityTask, INACTIVITY_TIMEOUT);
-    
-    }
-    
-    private void handleInactivityTimeout() 
-    {
-        if (currentUser != null) // se sono loggato
-        { 
-            crossServer.logoutUser(currentUser); // effettuo logout
-            currentUser = null; // resetto utente corrente
-
-            stopAllTimers();
-        }  
-    }
-
-
-// ================================== METODI DI CONTROLLO CONNESSIONE ========================
-
-
-    private void startConnectionCheckTimer() {
-            
-            // Cancella timer esistente
-            if (connectionTimer != null) {
-                connectionTimer.cancel();
-            }
-
-            this.connectionTimer = new Timer(true);
-            connectionTimer.scheduleAtFixedRate(new TimerTask() {
-                @Override
-                public void run() {
-                    checkTcpConnection();
-                }
-            }, CONNECTION_CHECK_INTERVAL, CONNECTION_CHECK_INTERVAL);
-    
-    }
-
-    private void checkTcpConnection() 
-    {
-        if (currentUser == null) 
-        {
-            // Se non c'è utente loggato, ferma il timer
-            stopAllTimers();
-            return;
-        }
-        
-        // Controlla direttamente la socket del client
-        if (clientSocket == null || clientSocket.isClosed() || !clientSocket.isConnected()) 
-        {
-            // Esegui logout forzato
-            if (currentUser != null) {
-                // Notifica il server
-                crossServer.logoutUser(currentUser);
-            }
-            // Pulisci lo stato locale
-            this.currentUser = null;
-            
-            // Ferma i timer
-            stopAllTimers();
-            
-            // Chiudi la socket
-            try 
-            {
-                if (clientSocket != null && !clientSocket.isClosed()) 
-                {
-                    clientSocket.close();
-                }
-            } catch (IOException e) 
-            {
-                System.err.println("Errore chiusura socket: " + e.getMessage());
-            }
-        }
-    }
-
-    private void stopAllTimers() {
-        if (inactivityTimer != null) {
-            inactivityTimer.cancel();
-            inactivityTimer = null;
-        }
-        if (connectionTimer != null) {
-            connectionTimer.cancel();
-            connectionTimer = null;
-        }
-    }
-}
\ No newline at end of file
+
+/*
+  cosa fa nella pratica questa classe:
+  - gestisce la comunicazione con un singolo client tramite socket TCP
+    - riceve richieste JSON dal client, le elabora chiamando  crossserver e invia risposte JSON
+    - supporta operazioni come registrazione, login, logout, inserimento e cancellazione ordini,
+      e richiesta della cronologia dei prezzi, elenco e cancellazione in blocco degli ordini aperti dell'utente
+      - nota: ad ogni operazione clienthandler aggiorna l'ultima attività della sessione nel SessionTimerWheel del server
+    - si occcupa anche di controllare se utente è loggato o meno e di far ripartire il timer di inattività
+  
+ */
+
+ // devi rivedere getpricehistory
+
+
+package server;
+
+import shared.*;
+import server.*;
+// aggiungi json message (?)
+import org.json.JSONArray;
+import org.json.JSONObject;
+import java.io.*;
+import java.net.Socket;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+public class ClientHandler implements Runnable 
+{
+    private Socket clientSocket; // solo in modalità threads (una connessione = un thread che legge)
+    private volatile ClientConnection connection; // la usa anche il MarketDataPublisher
+    private CROSSServer crossServer;
+    // utente loggato e disconnected cambiano solo sotto il monitor dell'handler: la sessione può essere chiusa
+    // anche dal thread del timer (SessionTimerWheel), e logout e cancellazioni li fa solo chi toglie l'utente
+    private volatile String currentUser;
+    private boolean disconnected;
+    // risposte non ancora scritte (richieste in pipeline), toccate solo dal thread che esegue le richieste
+    private final StringBuilder pendingResponses = new StringBuilder();
+    private static final int MAX_PENDING_RESPONSES = 64 * 1024;
+    // protocollo binario (OrderEntryProtocol), scelto dal client con il primo byte della connessione
+    private volatile boolean binary;
+    private ByteBuffer binaryOut;                 // frame di risposta non ancora scritti, riusato
+    // percorso veloce per gli ordini JSON (FastJson): richiesta letta e report riusati, niente albero org.json
+    private final FastJson.Request fastRequest = new FastJson.Request();
+    private final ExecutionReport reusableReport = new ExecutionReport(); // anche per gli ordini binari
+    private static final int MAX_BATCH_SIZE = ServerConfig.getInt("max_batch_size", 100);
+    // se true, quando la sessione cade (timeout, connessione persa) si cancellano tutti gli ordini aperti dell'utente
+    private static final boolean CANCEL_ON_DISCONNECT = ServerConfig.getBoolean("cancel_on_disconnect", false);
+    private static final String CANCEL_ERROR = "order does not exist or belongs to different user or has already been finalized or other error cases";
+    private volatile SessionTimerWheel.Session timerSession; // controlli di inattività/connessione, solo da loggato
+    private static final long INACTIVITY_TIMEOUT; // 30 minuti
+    private static final long CONNECTION_CHECK_INTERVAL; // 30 secondi
+    
+    public ClientHandler(Socket socket, CROSSServer server) {
+        this.clientSocket = socket;
+        this.crossServer = server;
+        this.INACTIVITY_TIMEOUT = readInactivityTimeoutFromConfig();
+        this.CONNECTION_CHECK_INTERVAL = readConnectionCheckIntervalFromConfig();
+    }
+
+    // modalità nio: le righe arrivano dal NioServer tramite handleLine, non c'è un thread che legge
+    public ClientHandler(ClientConnection connection, CROSSServer server) {
+        this.connection = connection;
+        this.crossServer = server;
+        this.INACTIVITY_TIMEOUT = readInactivityTimeoutFromConfig();
+        this.CONNECTION_CHECK_INTERVAL = readConnectionCheckIntervalFromConfig();
+    }
+
+
+    private long readConnectionCheckIntervalFromConfig() {
+        try {
+            String value = readConfigValue("connection_check_interval");
+            if (value != null) {
+                return Long.parseLong(value);
+            }
+        } catch (Exception e) {
+            System.err.println("Errore lettura connection_check_interval da config: " + e.getMessage());
+        }
+        return CONNECTION_CHECK_INTERVAL;
+    }
+
+    private static long readInactivityTimeoutFromConfig() {
+        try {
+            String value = readConfigValue("inactivity_timeout");
+            if (value != null) {
+                return Long.parseLong(value);
+            }
+        } catch (Exception e) {
+            System.err.println("Errore lettura inactivity_timeout da config: " + e.getMessage());
+        }
+        return INACTIVITY_TIMEOUT;
+    }
+
+    
+
+    private static String readConfigValue(String key) {
+        try {
+            Path configPath = Paths.get(CONFIG_FILE);
+            if (!Files.exists(configPath)) {
+                System.err.println("File config non trovato: " + CONFIG_FILE + ". Usando valori default.");
+                return null;
+            }
+            
+            List<String> lines = Files.readAllLines(configPath);
+            for (String line : lines) {
+                line = line.trim();
+                
+                // Salta commenti e linee vuote
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                
+                // Cerca chiave=valore
+                if (line.startsWith(key + "=")) {
+                    return line.substring(key.length() + 1).trim();
+                }
+            }
+            
+            System.err.println("Chiave '" + key + "' non trovata nel config");
+            
+        } catch (Exception e) {
+            System.err.println("Errore lettura file config '" + CONFIG_FILE + "': " + e.getMessage());
+        }
+        
+        return null;
+    }
+
+    // modalità threads: questo thread legge le righe dalla socket finchè il client non chiude
+    @Override
+    public void run() {
+        System.out.println("ClientHandler avviato per: " + clientSocket.getInetAddress());
+        
+        try (BufferedInputStream input = new BufferedInputStream(clientSocket.getInputStream())) 
+            {
+                this.connection = new SocketConnection(clientSocket);
+
+                // il primo byte sceglie il protocollo
+                input.mark(1);
+                if (input.read() == (OrderEntryProtocol.HELLO & 0xFF)) {
+                    useBinaryProtocol();
+                    readFrames(input);
+                    return;
+                }
+                input.reset();
+
+                BufferedReader in = new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8));
+                String inputLine;
+                while ((inputLine = in.readLine()) != null) {
+                    handleLine(inputLine, in.ready()); // ready() = il client ha già mandato altre richieste
+                }
+                
+            }
+         catch(IOException e) {
+            System.err.println("Errore nella gestione del client: " + e.getMessage());
+        } finally { 
+            // chiudo la disconnessione
+            onDisconnect();
+        }
+    }
+
+    // una richiesta JSON (una riga), in entrambe le modalità.
+    // "requestId" (opzionale, qualsiasi valore) viene rimesso uguale nella risposta: così il client può mandare
+    // più richieste senza aspettare le risposte e riconoscerle. Le richieste di una connessione sono sempre
+    // eseguite in ordine.
+    // moreInput = ci sono già altre richieste lette e in attesa: la risposta resta in pendingResponses e viene
+    // scritta insieme a quelle successive (una sola scrittura sul socket per un gruppo di richieste)
+    public void handleLine(String inputLine, boolean moreInput) {
+        // inserimenti e cancellazioni nella forma standard: letti e scritti senza org.json
+        if (fastRequest.parse(inputLine)) {
+            touchSession();
+            processFastRequest(fastRequest, pendingResponses);
+        } else {
+            pendingResponses.append(processLine(inputLine));
+        }
+        pendingResponses.append('\n');
+        if (!moreInput || pendingResponses.length() >= MAX_PENDING_RESPONSES) {
+            sendLines(pendingResponses.toString());
+            pendingResponses.setLength(0);
+        }
+    }
+
+    private String processLine(String inputLine) {
+        JSONObject response;
+        try {
+            JSONObject request = new JSONObject(inputLine);
+            touchSession();
+            response = processRequest(request);
+            Object requestId = request.opt("requestId");
+            if (requestId != null) {
+                response.put("requestId", requestId);
+            }
+        } catch (Exception e) {
+            response = createErrorResponse("Richiesta non valida: " + e.getMessage());
+        }
+        return response.toString();
+    }
+
+    // connessione chiusa (dal client o dal server): chiamata una sola volta
+    public void onDisconnect() {
+        String user;
+        synchronized (this) {
+            if (disconnected) {
+                return;
+            }
+            disconnected = true;
+            user = currentUser;
+            currentUser = null;
+        }
+        crossServer.unsubscribeAllMarketData(this);
+        stopSessionTimer();
+        if (user != null) {
+            cancelOnDisconnect(user);
+            crossServer.logoutUser(user);
+        }
+        closeConnection();
+    }
+
+    // chiusura decisa dal server (es. client che non legge il market data): il thread delle richieste
+    // o la NioConnection vedono la connessione chiusa e chiamano onDisconnect
+    void dropConnection() {
+        closeConnection();
+    }
+
+    private void closeConnection() 
+    {
+        if (connection != null) {
+            connection.close();
+        } else if (clientSocket != null) {
+            try {
+                clientSocket.close();
+            } catch (IOException e) {
+                System.err.println("Errore chiusura socket: " + e.getMessage());
+            }
+        }
+    }
+    
+    private JSONObject processRequest(JSONObject request) {
+        try {
+            String operation = JSONMessage.getOperation(request);
+            JSONObject values = request.getJSONObject("values");
+            String username = values.getString("username");
+            
+            switch (operation) {
+                case "register":
+                    return handleRegister(values);
+                    
+                case "login":
+                    return handleLogin(values);
+                    
+                case "logout":
+                    return handleLogout();
+
+                case "updateCredentials":
+                    return handleUpdateCredentials(values);
+                    
+                case "insertLimitOrder":
+                    return handleInsertLimitOrder(values);
+                    
+                case "insertMarketOrder":
+                    return handleInsertMarketOrder(values);
+                    
+                case "insertStopOrder":
+                    return handleInsertStopOrder(values);
+                    
+                case "cancelOrder":
+                    return handleCancelOrder(values);
+
+                case "insertOrders":
+                    return handleInsertOrders(values);
+
+                case "cancelOrders":
+                    return handleCancelOrders(values);
+
+                case "listOpenOrders":
+                    return handleListOpenOrders(values);
+
+                case "cancelAllOrders":
+                    return handleCancelAllOrders(values);
+                    
+                case "getPriceHistory":
+                    return handleGetPriceHistory(values);
+
+                case "getOrderBook":
+                    return handleGetOrderBook(values);
+
+                case "resendNotifications":
+                    return handleResendNotifications(values);
+
+                case "subscribeMarketData":
+                    return handleSubscribeMarketData(values);
+
+                case "unsubscribeMarketData":
+                    return handleUnsubscribeMarketData(values);
+                    
+                default:
+                    return createErrorResponse("Operazione non supportata: " + operation);
+            }
+            
+        } catch (Exception e) {
+            return createErrorResponse("Errore nel processamento: " + e.getMessage());
+        }
+    }
+    
+    private JSONObject handleRegister(JSONObject values) 
+    {
+        String username = values.getString("username");
+        String password = values.getString("password");
+        
+        int result = crossServer.registerUser(username, password);
+        
+        JSONObject response = new JSONObject();
+        response.put("response", result);
+        
+        switch (result) {
+            case 100: break; // OK
+            case 101: response.put("errorMessage", "invalid password"); break;
+            case 102: response.put("errorMessage", "username not available"); break;
+            default: response.put("errorMessage", "other error cases");
+        }
+        
+        return response;
+    }
+    
+    private JSONObject handleLogin(JSONObject values) {
+        JSONObject response = new JSONObject();
+        if(currentUser != null)
+        {
+            response.put("response", 102);
+            response.put("errorMessage", "user already logged");
+            return response;
+        }
+
+        String username = values.getString("username");
+        String password = values.getString("password");
+        int udpPort = values.optInt("udpPort", -1);
+        int result = crossServer.loginUser(username, password, connection.getRemoteAddress(), udpPort);
+
+        response.put("response", result);
+        
+        if (result == 100)
+        {
+            synchronized (this) {
+                this.currentUser = username; // salva l'utente loggato
+            }
+            startSessionTimer(); // faccio partire i controlli di inattività e di connessione
+        }
+        else if (result == 101) {
+            response.put("errorMessage", "username/password mismatch or non existent username");
+        }
+        else {
+            response.put("errorMessage", "other error cases");
+        }
+        
+        return response;
+    }
+    
+    private JSONObject handleLogout() 
+    {
+        JSONObject response = new JSONObject();
+        String user = takeCurrentUser();
+        if(user == null)
+        {
+            response.put("response", 104);
+            response.put("errorMessage", "user not logged in");
+            return response;
+        }
+        
+            stopSessionTimer();
+            int risultato = crossServer.logoutUser(user);
+            
+            if (risultato == 100) {
+                response.put("response", 100);
+            } else 
+            {
+                response.put("response", 101);
+                response.put("errorMessage", "other error cases");
+            }
+
+        return response;
+    }
+
+    private JSONObject handleUpdateCredentials(JSONObject values) 
+    {
+
+        JSONObject response = new JSONObject();
+        if (currentUser != null) // se utente è loggato
+        {
+            response.put("response", 104);
+            response.put("errorMessage", "user currently logged");
+            return response;
+        }
+
+        String username = values.getString("username");
+        String oldPassword = values.getString("old_password");
+        String newPassword = values.getString("new_password");
+        
+        // Chiama il metodo del server
+        int result = crossServer.updateCredentials(username, oldPassword, newPassword);
+        
+        // Costruisce la risposta JSON in base al codice
+        response.put("response", result);
+        
+        switch (result) {
+            case 100: // OK
+                // Nessun messaggio aggiuntivo necessario per successo
+                break;
+                
+            case 101: // invalid new password
+                response.put("errorMessage", "invalid new password");
+                break;
+                
+            case 102: // username/old_password mismatch or non existent username
+                response.put("errorMessage", "username/old_password mismatch or non existent username");
+                break;
+                
+            case 103: // new password equal to old one
+                response.put("errorMessage", "new password equal to old one");
+                break;
+                
+            case 105: // other error cases
+            default:
+                response.put("errorMessage", "other error cases");
+                break;
+        }
+        
+        return response;
+    }
+    
+    private JSONObject handleInsertLimitOrder(JSONObject values) 
+    {
+        String user = currentUser; // una sola lettura: la sessione può chiudersi dal thread del timer
+        JSONObject response = new JSONObject();
+        if (user == null) {
+            response.put("orderId", -1);
+            return response;
+        }
+        
+        String type = values.getString("type");
+        int size = values.getInt("size");
+        int price = values.getInt("price");
+        
+        try {
+            OrderSide side = OrderSide.valueOf(type.toUpperCase());
+            ExecutionReport report = newExecutionReport(values);
+            long orderId = crossServer.insertLimitOrder(user, getSymbol(values), side, size, price, report);
+            response.put("orderId", orderId); // sarà -1 in caso di errore
+            putExecutionReport(response, orderId, report);
+            return response;
+            
+        } catch (IllegalArgumentException e) {
+            response.put("orderId", -1);
+            return response;
+        }
+    }
+    
+    private JSONObject handleInsertMarketOrder(JSONObject values) 
+    {
+        String user = currentUser;
+        JSONObject response = new JSONObject();
+        if (user == null) {
+            response.put("orderId", -1); // utente non loggato
+            return response;
+        }
+        
+        String type = values.getString("type");
+        int size = values.getInt("size");
+        
+        try {
+            OrderSide side = OrderSide.valueOf(type.toUpperCase());
+            ExecutionReport report = newExecutionReport(values);
+            long orderId = crossServer.insertMarketOrder(user, getSymbol(values), side, size, report);
+            response.put("orderId", orderId);
+            putExecutionReport(response, orderId, report);
+            return response;
+            
+        } catch (IllegalArgumentException e) {
+            response.put("orderId", -1);
+            return response;
+        }
+    }
+    
+    private JSONObject handleInsertStopOrder(JSONObject values) 
+    {
+        String user = currentUser;
+        JSONObject response = new JSONObject();
+        if (user == null) {
+            response.put("orderId", -1); // utente non loggato
+            return response;
+        }
+        
+        String type = values.getString("type");
+        int size = values.getInt("size");
+        int price = values.getInt("price");
+        
+        try {
+            OrderSide side = OrderSide.valueOf(type.toUpperCase());
+            ExecutionReport report = newExecutionReport(values);
+            long orderId = crossServer.insertStopOrder(user, getSymbol(values), side, size, price, report);
+            response.put("orderId", orderId);
+            putExecutionReport(response, orderId, report);
+            return response;
+            
+        } catch (IllegalArgumentException e) {
+            response.put("orderId", -1);
+            return response;
+        }
+    }
+    
+    // con "executionReport": true la risposta contiene anche i fill immediati, senza aspettare le notifiche UDP
+    private static ExecutionReport newExecutionReport(JSONObject values) {
+        return values.optBoolean("executionReport", false) ? new ExecutionReport() : null;
+    }
+
+    private static void putExecutionReport(JSONObject response, long orderId, ExecutionReport report) {
+        if (report != null && orderId != -1) {
+            response.put("executionReport", report.toJSON());
+        }
+    }
+    
+    private JSONObject handleCancelOrder(JSONObject values) 
+    {
+        String user = currentUser;
+        if (user == null) {
+            JSONObject response = new JSONObject();
+            response.put("response", 101);
+            response.put("errorMessage", "Utente non autenticato");
+            return response;
+        }
+        
+        long orderId = values.getLong("orderId");
+        
+        // Il controllo che l'ordine appartenga all'utente corrente 
+        // viene fatto nel crossServer.cancelOrder
+        boolean success = crossServer.cancelOrder(user, getSymbol(values), orderId);
+        
+        JSONObject response = new JSONObject();
+        if (success) {
+            response.put("response", 100); // OK
+            // Non mettere errorMessage in caso di successo
+        } else {
+            response.put("response", 101);
+            response.put("errorMessage", CANCEL_ERROR);
+        }
+        
+        return response;
+    }
+
+
+    
+    // "orders": [{"orderType": "limit"|"market"|"stop" (default limit), "type", "size", "price", "symbol",
+    //             "executionReport"}, ...] applicati tutti insieme; "results" ha un elemento per ordine, nello stesso ordine
+    private JSONObject handleInsertOrders(JSONObject values) 
+    {
+        String user = currentUser;
+        JSONObject response = new JSONObject();
+        JSONArray orders = values.getJSONArray("orders");
+        if (!checkBatch(user, orders.length(), response)) {
+            return response;
+        }
+
+        OrderBatch batch = new OrderBatch();
+        OrderBatch.Item[] items = new OrderBatch.Item[orders.length()]; // null = elemento non valido
+        for (int i = 0; i < orders.length(); i++) {
+            JSONObject order = orders.getJSONObject(i);
+            try {
+                OrderSide side = OrderSide.valueOf(order.getString("type").toUpperCase());
+                int size = order.getInt("size");
+                String symbol = getSymbol(order);
+                ExecutionReport report = newExecutionReport(order);
+                String orderType = order.optString("orderType", "limit");
+                if (orderType.equalsIgnoreCase("limit")) {
+                    items[i] = batch.addLimit(symbol, side, size, order.getInt("price"), report);
+                } else if (orderType.equalsIgnoreCase("market")) {
+                    items[i] = batch.addMarket(symbol, side, size, report);
+                } else if (orderType.equalsIgnoreCase("stop")) {
+                    items[i] = batch.addStop(symbol, side, size, order.getInt("price"), report);
+                }
+            } catch (Exception e) {
+                // elemento non valido: orderId -1, gli altri vengono comunque eseguiti
+            }
+        }
+        crossServer.applyOrderBatch(user, batch);
+
+        JSONArray results = new JSONArray();
+        for (OrderBatch.Item item : items) {
+            JSONObject result = new JSONObject();
+            long orderId = (item == null) ? -1 : item.getResult();
+            result.put("orderId", orderId);
+            if (item != null) {
+                putExecutionReport(result, orderId, item.getReport());
+            }
+            results.put(result);
+        }
+        response.put("response", 100);
+        response.put("results", results);
+        return response;
+    }
+
+    // "orderIds": [...] dello stesso simbolo ("symbol" opzionale); "results": [{"orderId", "response": 100|101}, ...]
+    private JSONObject handleCancelOrders(JSONObject values) 
+    {
+        String user = currentUser;
+        JSONObject response = new JSONObject();
+        JSONArray orderIds = values.getJSONArray("orderIds");
+        if (!checkBatch(user, orderIds.length(), response)) {
+            return response;
+        }
+
+        String symbol = getSymbol(values);
+        OrderBatch batch = new OrderBatch();
+        for (int i = 0; i < orderIds.length(); i++) {
+            batch.addCancel(symbol, orderIds.getLong(i));
+        }
+        crossServer.applyOrderBatch(user, batch);
+
+        JSONArray results = new JSONArray();
+        for (int i = 0; i < batch.size(); i++) {
+            JSONObject result = new JSONObject();
+            result.put("orderId", orderIds.getLong(i));
+            result.put("response", batch.getItems().get(i).getResult());
+            results.put(result);
+        }
+        response.put("response", 100);
+        response.put("results", results);
+        return response;
+    }
+
+    // "symbol" opzionale: se manca, gli ordini di tutti i simboli. "orders": [{"symbol", "orderId", "type",
+    // "orderType": "limit"|"stop", "size", "remainingSize", "price"}, ...]
+    private JSONObject handleListOpenOrders(JSONObject values) 
+    {
+        String user = currentUser;
+        if (user == null) {
+            return createErrorResponse("Utente non autenticato");
+        }
+
+        String symbol = values.has("symbol") ? getSymbol(values) : null;
+        List<OpenOrder> openOrders = crossServer.listOpenOrders(user, symbol);
+        JSONObject response = new JSONObject();
+        if (openOrders == null) {
+            response.put("response", 101);
+            response.put("errorMessage", "Simbolo non trattato: " + symbol);
+            return response;
+        }
+
+        JSONArray orders = new JSONArray();
+        for (OpenOrder openOrder : openOrders) {
+            orders.put(openOrder.toJSON());
+        }
+        response.put("response", 100);
+        response.put("orders", orders);
+        return response;
+    }
+
+    // "symbol" opzionale come in listOpenOrders; "cancelled" = quanti ordini sono stati cancellati
+    private JSONObject handleCancelAllOrders(JSONObject values) 
+    {
+        String user = currentUser;
+        if (user == null) {
+            JSONObject response = new JSONObject();
+            response.put("response", 101);
+            response.put("errorMessage", "Utente non autenticato");
+            return response;
+        }
+
+        String symbol = values.has("symbol") ? getSymbol(values) : null;
+        int cancelled = crossServer.cancelAllOrders(user, symbol);
+        JSONObject response = new JSONObject();
+        if (cancelled < 0) {
+            response.put("response", 101);
+            response.put("errorMessage", "Simbolo non trattato: " + symbol);
+        } else {
+            response.put("response", 100);
+            response.put("cancelled", cancelled);
+        }
+        return response;
+    }
+
+    private boolean checkBatch(String user, int size, JSONObject response) {
+        if (user == null) {
+            response.put("response", 101);
+            response.put("errorMessage", "Utente non autenticato");
+            return false;
+        }
+        if (size > MAX_BATCH_SIZE) {
+            response.put("response", 101);
+            response.put("errorMessage", "troppi elementi nel batch (massimo " + MAX_BATCH_SIZE + ")");
+            return false;
+        }
+        return true;
+    }
+
+    private JSONObject handleGetPriceHistory(JSONObject values) {
+        if (currentUser == null) {
+            return createErrorResponse("Utente non autenticato");
+        }
+        
+        String month = values.getString("month");
+        JSONObject history = crossServer.getPriceHistory(getSymbol(values), month);
+        
+        JSONObject response = new JSONObject();
+        response.put("history", history);
+        return response;
+    }
+    
+    // "levels" opzionale: quanti livelli per lato, al massimo depth_levels (config)
+    private JSONObject handleGetOrderBook(JSONObject values) {
+        if (currentUser == null) {
+            return createErrorResponse("Utente non autenticato");
+        }
+
+        int maxLevels = OrderBook.getDepthLevels();
+        int levels = values.optInt("levels", maxLevels);
+        if (levels <= 0 || levels > maxLevels) {
+            levels = maxLevels;
+        }
+        JSONObject book = crossServer.getOrderBook(getSymbol(values), levels);
+
+        JSONObject response = new JSONObject();
+        response.put("orderBook", book);
+        return response;
+    }
+    
+    // il client ha visto un buco nei "seq" delle notifiche UDP: rimando i messaggi da fromSeq in poi
+    private JSONObject handleResendNotifications(JSONObject values) {
+        String user = currentUser;
+        if (user == null) {
+            return createErrorResponse("Utente non autenticato");
+        }
+        return crossServer.resendNotifications(user, values.getLong("fromSeq"));
+    }
+
+    // dopo la risposta il server spinge sulla stessa connessione i messaggi {"type":"marketData",...}
+    private JSONObject handleSubscribeMarketData(JSONObject values) {
+        if (currentUser == null) {
+            return createErrorResponse("Utente non autenticato");
+        }
+
+        String symbol = getSymbol(values);
+        if (!crossServer.subscribeMarketData(this, symbol)) {
+            return createErrorResponse("Simbolo non trattato: " + symbol);
+        }
+        JSONObject response = new JSONObject();
+        response.put("response", 100);
+        response.put("symbol", symbol);
+        return response;
+    }
+
+    private JSONObject handleUnsubscribeMarketData(JSONObject values) {
+        String symbol = getSymbol(values);
+        JSONObject response = new JSONObject();
+        if (crossServer.unsubscribeMarketData(this, symbol)) {
+            response.put("response", 100);
+        } else {
+            response.put("response", 101);
+            response.put("errorMessage", "nessuna sottoscrizione attiva per " + symbol);
+        }
+        return response;
+    }
+
+    // scrive una o più righe già terminate da \n; la usano sia il loop delle richieste sia il MarketDataPublisher.
+    // false se la connessione non è (più) utilizzabile
+    boolean sendLines(String lines) {
+        ClientConnection current = connection;
+        if (current == null) {
+            return false;
+        }
+        if (!binary) {
+            return current.write(lines);
+        }
+        // connessione binaria: ogni riga diventa un frame JSON_RESPONSE (buffer nuovo: non è il thread delle richieste)
+        String[] split = lines.split("\n");
+        byte[][] encoded = new byte[split.length][];
+        int total = 0;
+        for (int i = 0; i < split.length; i++) {
+            encoded[i] = split[i].getBytes(StandardCharsets.UTF_8);
+            if (encoded[i].length >= OrderEntryProtocol.MAX_PAYLOAD_SIZE) {
+                System.err.println("Messaggio troppo grande per un frame binario, scartato");
+                encoded[i] = null;
+                continue;
+            }
+            total += OrderEntryProtocol.LENGTH_SIZE + 1 + encoded[i].length;
+        }
+        ByteBuffer frames = ByteBuffer.allocate(total);
+        for (byte[] json : encoded) {
+            if (json != null) {
+                OrderEntryProtocol.putJson(frames, OrderEntryProtocol.JSON_RESPONSE, json);
+            }
+        }
+        frames.flip();
+        return current.write(frames);
+    }
+    
+    // simbolo dello strumento: opzionale, se manca si usa quello di default del server
+    private String getSymbol(JSONObject values) {
+        return values.optString("symbol", crossServer.getDefaultSymbol()).toUpperCase();
+    }
+    
+    private JSONObject createErrorResponse(String errorMessage) {
+        JSONObject response = new JSONObject();
+        response.put("response", -1);
+        response.put("errorMessage", errorMessage);
+        return response;
+    }
+    
+    private void cleanup() {
+        if (currentUser != null) {
+            crossServer.logoutUser(currentUser);
+            this.currentUser=null;
+            System.out.println("Client disconnesso: " + currentUser);
+
+        }
+        
+        // se la socket non è chiusa (?)
+        closeConnection();
+    }
+
+// =============================================== PERCORSO VELOCE JSON ========================
+// stesse risposte di handleInsert*Order e handleCancelOrder, scritte direttamente nel buffer delle risposte
+
+    private void processFastRequest(FastJson.Request request, StringBuilder out) {
+        String user = currentUser;
+        FastJson.beginObject(out);
+        String symbol = (request.symbol == null) ? crossServer.getDefaultSymbol() : request.symbol.toUpperCase();
+
+        if (request.operation == FastJson.CANCEL) {
+            if (user == null) {
+                FastJson.field(out, "response", 101);
+                FastJson.field(out, "errorMessage", "Utente non autenticato");
+            } else if (crossServer.cancelOrder(user, symbol, request.orderId)) {
+                FastJson.field(out, "response", 100);
+            } else {
+                FastJson.field(out, "response", 101);
+                FastJson.field(out, "errorMessage", CANCEL_ERROR);
+            }
+        } else {
+            long orderId = -1;
+            ExecutionReport report = null;
+            if (user != null) {
+                if (request.executionReport) {
+                    reusableReport.reset();
+                    report = reusableReport;
+                }
+                if (request.operation == FastJson.INSERT_LIMIT) {
+                    orderId = crossServer.insertLimitOrder(user, symbol, request.side, request.size, request.price, report);
+                } else if (request.operation == FastJson.INSERT_MARKET) {
+                    orderId = crossServer.insertMarketOrder(user, symbol, request.side, request.size, report);
+                } else {
+                    orderId = crossServer.insertStopOrder(user, symbol, request.side, request.size, request.price, report);
+                }
+            }
+            FastJson.field(out, "orderId", orderId);
+            if (report != null && orderId != -1) {
+                report.appendJSON(out);
+            }
+        }
+
+        if (request.hasRequestId) {
+            FastJson.field(out, "requestId", request.requestId);
+        }
+        FastJson.endObject(out);
+    }
+
+// =============================================== PROTOCOLLO BINARIO ========================
+// ordini e cancellazioni in frame a layout fisso (shared.OrderEntryProtocol): niente JSON da leggere e scrivere.
+// Le altre operazioni (login, storico, ...) arrivano come JSON dentro un frame JSON_REQUEST
+
+    void useBinaryProtocol() {
+        binaryOut = ByteBuffer.allocate(2 * (OrderEntryProtocol.LENGTH_SIZE + OrderEntryProtocol.MAX_PAYLOAD_SIZE));
+        binary = true;
+    }
+
+    // modalità threads: legge i frame in un buffer riusato finchè il client non chiude
+    private void readFrames(InputStream input) throws IOException {
+        DataInputStream in = new DataInputStream(input);
+        byte[] frame = new byte[OrderEntryProtocol.MAX_PAYLOAD_SIZE];
+        ByteBuffer payload = ByteBuffer.wrap(frame);
+        while (true) {
+            int length;
+            try {
+                length = in.readUnsignedShort();
+            } catch (EOFException e) {
+                return; // il client ha chiuso
+            }
+            in.readFully(frame, 0, length);
+            payload.clear().limit(length);
+            if (length > 0) {
+                handleBinary(payload, input.available() > 0);
+            }
+        }
+    }
+
+    // un frame binario (payload senza la lunghezza), in entrambe le modalità. Come handleLine: le risposte
+    // di richieste seguite da altre già arrivate vengono scritte insieme
+    public void handleBinary(ByteBuffer payload, boolean moreInput) {
+        // spazio per la risposta più grande possibile
+        if (binaryOut.remaining() < OrderEntryProtocol.LENGTH_SIZE + OrderEntryProtocol.MAX_PAYLOAD_SIZE) {
+            flushBinary();
+        }
+        byte type = 0;
+        long requestId = -1;
+        boolean hasRequestId = false;
+        int responseStart = binaryOut.position(); // su errore tolgo una risposta scritta a metà
+        try {
+            type = payload.get();
+            switch (type) {
+                case OrderEntryProtocol.INSERT_LIMIT:
+                case OrderEntryProtocol.INSERT_MARKET:
+                case OrderEntryProtocol.INSERT_STOP:
+                    requestId = payload.getLong();
+                    hasRequestId = true;
+                    handleBinaryOrder(type, requestId, payload);
+                    break;
+
+                case OrderEntryProtocol.CANCEL:
+                    requestId = payload.getLong();
+                    hasRequestId = true;
+                    handleBinaryCancel(requestId, payload);
+                    break;
+
+                case OrderEntryProtocol.JSON_REQUEST:
+                    putJsonResponse(processLine(OrderEntryProtocol.readJson(payload)));
+                    break;
+
+                default:
+                    putJsonResponse(createErrorResponse("Tipo di messaggio non supportato: " + type).toString());
+            }
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            binaryOut.position(responseStart);
+            putBinaryError(type, hasRequestId, requestId, "Messaggio binario non valido");
+        } catch (Exception e) {
+            // come processRequest: un errore nel percorso dell'ordine non deve chiudere la connessione
+            binaryOut.position(responseStart);
+            System.err.println("Errore nel messaggio binario: " + e.getMessage());
+            putBinaryError(type, hasRequestId, requestId, "Errore nel processamento: " + e.getMessage());
+        }
+        if (!moreInput) {
+            flushBinary();
+        }
+    }
+
+    // se si è letto il requestId l'errore è la risposta di quella richiesta (orderId -1 / esito 101),
+    // così il client non resta ad aspettarla; altrimenti un JSON_RESPONSE di errore
+    private void putBinaryError(byte type, boolean hasRequestId, long requestId, String errorMessage) {
+        if (hasRequestId && type == OrderEntryProtocol.CANCEL) {
+            OrderEntryProtocol.putCancelAck(binaryOut, requestId, -1, 101);
+        } else if (hasRequestId) {
+            OrderEntryProtocol.putOrderAck(binaryOut, requestId, -1);
+        } else {
+            putJsonResponse(createErrorResponse(errorMessage).toString());
+        }
+    }
+
+    private void handleBinaryOrder(byte type, long requestId, ByteBuffer payload) {
+        String user = currentUser;
+        OrderSide side = OrderEntryProtocol.readSide(payload);
+        int size = payload.getInt();
+        int price = (type == OrderEntryProtocol.INSERT_MARKET) ? 0 : payload.getInt();
+        String symbol = binarySymbol(payload);
+        ExecutionReport report = null;
+        if ((payload.get() & OrderEntryProtocol.FLAG_EXECUTION_REPORT) != 0) {
+            reusableReport.reset();
+            report = reusableReport;
+        }
+        touchSession();
+
+        long orderId = -1;
+        if (user != null) {
+            if (type == OrderEntryProtocol.INSERT_LIMIT) {
+                orderId = crossServer.insertLimitOrder(user, symbol, side, size, price, report);
+            } else if (type == OrderEntryProtocol.INSERT_MARKET) {
+                orderId = crossServer.insertMarketOrder(user, symbol, side, size, report);
+            } else {
+                orderId = crossServer.insertStopOrder(user, symbol, side, size, price, report);
+            }
+        }
+
+        if (report != null && orderId != -1) {
+            report.putBinary(binaryOut, requestId);
+        } else {
+            OrderEntryProtocol.putOrderAck(binaryOut, requestId, orderId);
+        }
+    }
+
+    private void handleBinaryCancel(long requestId, ByteBuffer payload) {
+        String user = currentUser;
+        long orderId = payload.getLong();
+        String symbol = binarySymbol(payload);
+        touchSession();
+
+        boolean success = user != null && crossServer.cancelOrder(user, symbol, orderId);
+        OrderEntryProtocol.putCancelAck(binaryOut, requestId, orderId, success ? 100 : 101);
+    }
+
+    private String binarySymbol(ByteBuffer payload) {
+        String symbol = OrderEntryProtocol.readSymbol(payload);
+        return (symbol == null) ? crossServer.getDefaultSymbol() : symbol.toUpperCase();
+    }
+
+    private void putJsonResponse(String json) {
+        byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length >= OrderEntryProtocol.MAX_PAYLOAD_SIZE) {
+            bytes = createErrorResponse("Risposta troppo grande per un frame binario").toString().getBytes(StandardCharsets.UTF_8);
+        }
+        OrderEntryProtocol.putJson(binaryOut, OrderEntryProtocol.JSON_RESPONSE, bytes);
+    }
+
+    private void flushBinary() {
+        if (binaryOut.position() == 0) {
+            return;
+        }
+        binaryOut.flip();
+        ClientConnection current = connection;
+        if (current != null) {
+            current.write(binaryOut);
+        }
+        binaryOut.clear();
+    }
+
+// =============================================== CONTROLLI DI INATTIVITà ========================
+// i controlli li fa il SessionTimerWheel condiviso dal server: qui solo registrazione e cosa fare alla scadenza
+
+    private void startSessionTimer() {
+        stopSessionTimer();
+        this.timerSession = crossServer.getSessionTimers().register(this, INACTIVITY_TIMEOUT, CONNECTION_CHECK_INTERVAL);
+    }
+
+    // ad ogni richiesta: aggiorna solo il timestamp dell'ultima attività
+    private void touchSession() {
+        SessionTimerWheel.Session session = timerSession;
+        if (session != null) {
+            session.touch();
+        }
+    }
+
+    private void stopSessionTimer() {
+        SessionTimerWheel.Session session = timerSession;
+        if (session != null) {
+            session.cancel();
+            timerSession = null;
+        }
+    }
+
+    // toglie l'utente loggato e lo ritorna, null se non c'era: chi lo riceve fa il logout, una volta sola
+    private synchronized String takeCurrentUser() {
+        String user = currentUser;
+        currentUser = null;
+        return user;
+    }
+
+    // come takeCurrentUser, ma solo se session è ancora quella attiva (null se già chiusa o sostituita
+    // da un nuovo login)
+    private synchronized String takeTimedOutUser(SessionTimerWheel.Session session) {
+        if (session != timerSession) {
+            return null;
+        }
+        timerSession = null;
+        return takeCurrentUser();
+    }
+
+    // chiamata dal thread del timer quando l'utente non fa richieste da INACTIVITY_TIMEOUT
+    void handleInactivityTimeout(SessionTimerWheel.Session session) 
+    {
+        String user = takeTimedOutUser(session);
+        if (user != null) // se sono loggato
+        { 
+            cancelOnDisconnect(user);
+            crossServer.logoutUser(user); // effettuo logout
+        }  
+    }
+
+
+    // con cancel_on_disconnect una sessione caduta non lascia ordini nel book (un logout esplicito sì)
+    private void cancelOnDisconnect(String username) {
+        if (!CANCEL_ON_DISCONNECT) {
+            return;
+        }
+        int cancelled = crossServer.cancelAllOrders(username, null);
+        if (cancelled > 0) {
+            System.err.println("Sessione di " + username + " chiusa: cancellati " + cancelled + " ordini aperti");
+        }
+    }
+
+
+// ================================== METODI DI CONTROLLO CONNESSIONE ========================
+
+    boolean isConnectionOpen() {
+        return connection != null && connection.isOpen();
+    }
+
+    // chiamata dal thread del timer se al controllo periodico la connessione risulta chiusa
+    void handleConnectionLost(SessionTimerWheel.Session session) 
+    {
+        String user = takeTimedOutUser(session);
+        if (user == null) {
+            return; // sessione già chiusa (anche da onDisconnect) o sostituita da un nuovo login
+        }
+        // Esegui logout forzato
+        cancelOnDisconnect(user);
+        crossServer.logoutUser(user);
+        
+        // Chiudi la socket: onDisconnect non trova più l'utente e non rifà il logout
+        closeConnection();
+    }
+}
@@ -0,0 +1,195 @@
+/*
+ * ConnectionBenchmark.java
+ * cosa fa questa classe:
+ * - benchmark delle modalità di rete del server (network_mode=threads, virtual, nio): apre N connessioni TCP
+ *   contemporanee e su ognuna manda M richieste getOrderBook, una alla volta (richiesta -> risposta)
+ * - misura il tempo per aprire tutte le connessioni, quante connessioni sono riuscite, il throughput totale
+ *   e la latenza di andata e ritorno (p50, p99, max)
+ * - le connessioni restano aperte fino alla fine, così si vede anche quante sessioni il server tiene insieme
+ *   (in modalità threads oltre thread_pool_size le connessioni in più aspettano un thread libero)
+ * - lato client ogni connessione gira su un thread virtuale, così 10k connessioni non servono 10k thread.
+ *   Con un JDK prima del 21 (niente thread virtuali) ripiega su un thread normale per connessione
+ * - le richieste non fanno login: la risposta è un errore "Utente non autenticato", ma il percorso
+ *   lettura -> ClientHandler -> scrittura è lo stesso, ed è quello che si vuole misurare
+ * - uso: java client.ConnectionBenchmark [host] [porta] [connessioni] [richieste per connessione]
+ *   (default localhost 8080 1000 100), da lanciare una volta per ogni network_mode, con 1000 e 10000 connessioni
+ */
+
+package client;
+
+import org.json.JSONObject;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class ConnectionBenchmark {
+
+    private static final int CONNECT_TIMEOUT_MS = 10_000;
+    private static final int READ_TIMEOUT_MS = 30_000;
+
+    private final String host;
+    private final int port;
+    private final int connections;
+    private final int requestsPerConnection;
+
+    // latenze in nanosecondi, un array per connessione (nessuna contesa tra i thread)
+    private final long[][] latencies;
+    private final AtomicInteger connected = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+
+    public ConnectionBenchmark(String host, int port, int connections, int requestsPerConnection) {
+        this.host = host;
+        this.port = port;
+        this.connections = connections;
+        this.requestsPerConnection = requestsPerConnection;
+        this.latencies = new long[connections][];
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        String host = (args.length > 0) ? args[0] : "localhost";
+        int port = (args.length > 1) ? Integer.parseInt(args[1]) : 8080;
+        int connections = (args.length > 2) ? Integer.parseInt(args[2]) : 1000;
+        int requests = (args.length > 3) ? Integer.parseInt(args[3]) : 100;
+
+        new ConnectionBenchmark(host, port, connections, requests).run();
+    }
+
+    public void run() throws InterruptedException {
+        String request = buildRequest();
+        CountDownLatch allConnected = new CountDownLatch(connections);
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(connections);
+
+        long connectStart = System.nanoTime();
+        ExecutorService executor = newConnectionExecutor();
+        try {
+            for (int i = 0; i < connections; i++) {
+                final int index = i;
+                executor.execute(() -> runConnection(index, request, allConnected, start, done));
+            }
+
+            allConnected.await();
+            long connectNanos = System.nanoTime() - connectStart;
+            System.out.println("Connessioni aperte: " + connected.get() + "/" + connections
+                + " in " + TimeUnit.NANOSECONDS.toMillis(connectNanos) + " ms");
+
+            // tutte le connessioni partono insieme, così il server le ha tutte aperte durante la misura
+            long runStart = System.nanoTime();
+            start.countDown();
+            done.await();
+            long runNanos = System.nanoTime() - runStart;
+            printResults(runNanos);
+        } finally {
+            executor.shutdown();
+            executor.awaitTermination(READ_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    // thread virtuali da Java 21 (per riflessione, così il client compila anche con JDK più vecchi)
+    private static ExecutorService newConnectionExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            System.err.println("Thread virtuali non disponibili (Java " + System.getProperty("java.version")
+                + "), uso un thread per connessione");
+            return Executors.newCachedThreadPool();
+        }
+    }
+
+    private void runConnection(int index, String request, CountDownLatch allConnected, CountDownLatch start, CountDownLatch done) {
+        Socket socket = new Socket();
+        try {
+            try {
+                socket.connect(new InetSocketAddress(host, port), CONNECT_TIMEOUT_MS);
+                socket.setTcpNoDelay(true);
+                socket.setSoTimeout(READ_TIMEOUT_MS);
+                connected.incrementAndGet();
+            } finally {
+                allConnected.countDown();
+            }
+            start.await();
+
+            OutputStream out = socket.getOutputStream();
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            byte[] line = request.getBytes(StandardCharsets.UTF_8);
+            long[] samples = new long[requestsPerConnection];
+
+            for (int i = 0; i < requestsPerConnection; i++) {
+                long sent = System.nanoTime();
+                out.write(line);
+                out.flush();
+                if (in.readLine() == null) {
+                    throw new IOException("connessione chiusa dal server");
+                }
+                samples[i] = System.nanoTime() - sent;
+            }
+            latencies[index] = samples;
+        } catch (IOException e) {
+            failed.incrementAndGet();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            done.countDown();
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // ignorato, a fine test
+            }
+        }
+    }
+
+    private void printResults(long runNanos) {
+        int completed = 0;
+        for (long[] samples : latencies) {
+            if (samples != null) {
+                completed++;
+            }
+        }
+        long[] all = new long[completed * requestsPerConnection];
+        int offset = 0;
+        for (long[] samples : latencies) {
+            if (samples != null) {
+                System.arraycopy(samples, 0, all, offset, samples.length);
+                offset += samples.length;
+            }
+        }
+        Arrays.sort(all);
+
+        double seconds = runNanos / 1_000_000_000.0;
+        System.out.println("Connessioni completate: " + completed + ", fallite: " + failed.get());
+        System.out.println("Richieste: " + all.length + " in " + String.format("%.2f", seconds) + " s ("
+            + String.format("%.0f", all.length / seconds) + " richieste/s)");
+        if (all.length > 0) {
+            System.out.println("Latenza p50: " + micros(percentile(all, 50)) + " us, p99: "
+                + micros(percentile(all, 99)) + " us, max: " + micros(all[all.length - 1]) + " us");
+        }
+    }
+
+    private static long percentile(long[] sorted, int percent) {
+        int index = (int) Math.ceil(percent / 100.0 * sorted.length) - 1;
+        return sorted[Math.max(0, index)];
+    }
+
+    private static long micros(long nanos) {
+        return TimeUnit.NANOSECONDS.toMicros(nanos);
+    }
+
+    private static String buildRequest() {
+        JSONObject values = new JSONObject();
+        values.put("username", "benchmark");
+        JSONObject request = new JSONObject();
+        request.put("operation", "getOrderBook");
+        request.put("values", values);
+        return request.toString() + "\n";
+    }
+}
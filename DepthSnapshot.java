@@ -0,0 +1,115 @@
+/*
+ * DepthSnapshot.java
+ * cosa fa questa classe:
+ * - fotografia immutabile della profondità del book (L2, market by price): i primi N livelli di bid e ask
+ *   con prezzo, quantità residua totale e numero di ordini per livello
+ * - i totali per livello li tiene già ogni PriceLevel (aggiornati su add, fill e cancel), quindi costruirla
+ *   costa O(N) e non somma gli ordini
+ * - l'OrderBook la ricostruisce solo quando un lato è cambiato e la pubblica con un campo volatile (copy on write):
+ *   le richieste getOrderBook leggono l'ultima pubblicata senza lock e senza toccare il matching
+ * - checksum: CRC32 dei livelli (prezzo e quantità, prima i bid poi gli ask, int/long big endian), così un client
+ *   che applica gli aggiornamenti incrementali può verificare di avere lo stesso book del server
+ */
+
+package server;
+
+import shared.*;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
+
+public final class DepthSnapshot {
+    static final DepthSnapshot EMPTY = new DepthSnapshot(0, new Side(0), new Side(0));
+
+    private final long sequence;
+    private final Side bids; // dal prezzo più alto
+    private final Side asks; // dal prezzo più basso
+
+    DepthSnapshot(long sequence, Side bids, Side asks) {
+        this.sequence = sequence;
+        this.bids = bids;
+        this.asks = asks;
+    }
+
+    public long getSequence() { return sequence; }
+    public Side getBids() { return bids; }
+    public Side getAsks() { return asks; }
+
+    // risposta per getOrderBook, al massimo maxLevels livelli per lato
+    public JSONObject toJSON(String symbol, int maxLevels) {
+        JSONObject json = new JSONObject();
+        json.put("symbol", symbol);
+        json.put("sequence", sequence);
+        json.put("bids", bids.toJSON(maxLevels));
+        json.put("asks", asks.toJSON(maxLevels));
+        return json;
+    }
+
+    public long checksum() {
+        ByteBuffer buffer = ByteBuffer.allocate((bids.levels + asks.levels) * 12);
+        bids.writeTo(buffer);
+        asks.writeTo(buffer);
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), 0, buffer.position());
+        return crc.getValue();
+    }
+
+    // legge i primi maxLevels livelli di un lato, nell'ordine di priorità del lato
+    static <T extends Order> Side capture(BookSide<T> bookSide, int maxLevels) {
+        Side side = new Side(maxLevels);
+        for (PriceLevel<T> level = bookSide.bestLevel(); level != null && side.levels < maxLevels; level = bookSide.nextLevel(level)) {
+            side.prices[side.levels] = level.getPrice();
+            side.sizes[side.levels] = level.getTotalRemaining();
+            side.orderCounts[side.levels] = level.getOrderCount();
+            side.levels++;
+        }
+        return side;
+    }
+
+    // un lato della fotografia: array paralleli, riempiti una volta sola da capture
+    public static final class Side {
+        private final int[] prices;
+        private final long[] sizes;
+        private final int[] orderCounts;
+        private int levels;
+
+        private Side(int maxLevels) {
+            this.prices = new int[maxLevels];
+            this.sizes = new long[maxLevels];
+            this.orderCounts = new int[maxLevels];
+        }
+
+        public int getLevels() { return levels; }
+        public int getPrice(int i) { return prices[i]; }
+        public long getSize(int i) { return sizes[i]; }
+        public int getOrderCount(int i) { return orderCounts[i]; }
+
+        // indice del livello con questo prezzo, -1 se non c'è
+        public int indexOf(int price) {
+            for (int i = 0; i < levels; i++) {
+                if (prices[i] == price) return i;
+            }
+            return -1;
+        }
+
+        private void writeTo(ByteBuffer buffer) {
+            for (int i = 0; i < levels; i++) {
+                buffer.putInt(prices[i]);
+                buffer.putLong(sizes[i]);
+            }
+        }
+
+        JSONArray toJSON(int maxLevels) {
+            JSONArray array = new JSONArray();
+            for (int i = 0; i < levels && i < maxLevels; i++) {
+                JSONObject level = new JSONObject();
+                level.put("price", prices[i]);
+                level.put("size", sizes[i]);
+                level.put("orders", orderCounts[i]);
+                array.put(level);
+            }
+            return array;
+        }
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * ExecutionReport.java
+ * cosa fa questa classe:
+ * - raccoglie i fill immediati di un ordine appena inserito (prezzo, quantità, orderId della controparte)
+ *   e la quantità rimasta dopo l'evento, da rimandare nella stessa risposta TCP dell'inserimento
+ * - la crea il ClientHandler se la richiesta ha "executionReport": true, la riempie l'OrderBook durante il matching
+ * - in modalità single_writer la riempie il thread dell'engine: il client la legge solo dopo la risposta
+ *   dell'engine, che rende visibili le scritture (vedi MatchingEngine.Completion)
+ * - per gli ordini binari (OrderEntryProtocol) e per quelli JSON del percorso veloce (FastJson) un ClientHandler
+ *   riusa sempre lo stesso report (reset)
+ */
+
+package server;
+
+import shared.OrderEntryProtocol;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+public class ExecutionReport {
+    private long orderId = -1;
+    private final List<Fill> fills = new ArrayList<>();
+    private int remainingSize;
+
+    public long getOrderId() { return orderId; }
+    void setOrderId(long orderId) { this.orderId = orderId; }
+
+    public int getRemainingSize() { return remainingSize; }
+    void setRemainingSize(int remainingSize) { this.remainingSize = remainingSize; }
+
+    public List<Fill> getFills() { return fills; }
+
+    void addFill(int price, int size, long counterpartyOrderId) {
+        fills.add(new Fill(price, size, counterpartyOrderId));
+    }
+
+    // per riusare lo stesso report sulla richiesta successiva
+    void reset() {
+        orderId = -1;
+        fills.clear();
+        remainingSize = 0;
+    }
+
+    // frame EXECUTION_REPORT del protocollo binario
+    public void putBinary(ByteBuffer buffer, long requestId) {
+        int count = Math.min(fills.size(), OrderEntryProtocol.MAX_REPORT_FILLS);
+        int start = OrderEntryProtocol.beginFrame(buffer, OrderEntryProtocol.EXECUTION_REPORT);
+        buffer.putLong(requestId);
+        buffer.putLong(orderId);
+        buffer.putInt(remainingSize);
+        buffer.putShort((short) count);
+        for (int i = 0; i < count; i++) {
+            Fill fill = fills.get(i);
+            buffer.putInt(fill.price);
+            buffer.putInt(fill.size);
+            buffer.putLong(fill.counterpartyOrderId);
+        }
+        OrderEntryProtocol.endFrame(buffer, start);
+    }
+
+    // come toJSON, ma scritto direttamente nel buffer di risposta come campo "executionReport"
+    public void appendJSON(StringBuilder out) {
+        FastJson.beginObject(out, "executionReport");
+        FastJson.beginArray(out, "fills");
+        for (Fill fill : fills) {
+            FastJson.beginObject(out);
+            FastJson.field(out, "price", fill.price);
+            FastJson.field(out, "size", fill.size);
+            FastJson.field(out, "counterpartyOrderId", fill.counterpartyOrderId);
+            FastJson.endObject(out);
+        }
+        FastJson.endArray(out);
+        FastJson.field(out, "remainingSize", remainingSize);
+        FastJson.endObject(out);
+    }
+
+    public JSONObject toJSON() {
+        JSONArray array = new JSONArray();
+        for (Fill fill : fills) {
+            JSONObject json = new JSONObject();
+            json.put("price", fill.price);
+            json.put("size", fill.size);
+            json.put("counterpartyOrderId", fill.counterpartyOrderId);
+            array.put(json);
+        }
+        JSONObject report = new JSONObject();
+        report.put("fills", array);
+        report.put("remainingSize", remainingSize);
+        return report;
+    }
+
+    public static final class Fill {
+        private final int price;
+        private final int size;
+        private final long counterpartyOrderId;
+
+        Fill(int price, int size, long counterpartyOrderId) {
+            this.price = price;
+            this.size = size;
+            this.counterpartyOrderId = counterpartyOrderId;
+        }
+
+        public int getPrice() { return price; }
+        public int getSize() { return size; }
+        public long getCounterpartyOrderId() { return counterpartyOrderId; }
+    }
+}
@@ -0,0 +1,377 @@
+/*
+ * FastJson.java
+ * cosa fa questa classe:
+ * - lettura e scrittura JSON senza org.json per i messaggi più frequenti di CROSS, dove costruire un albero
+ *   JSONObject per ogni richiesta costa più del matching
+ * - scrittura: metodi statici che aggiungono campi direttamente in uno StringBuilder riusato dal chiamante.
+ *   La virgola tra i campi la decide l'ultimo carattere scritto ('{' o '[' = primo elemento)
+ * - lettura: Request legge in un solo passaggio una richiesta insertLimitOrder / insertMarketOrder /
+ *   insertStopOrder / cancelOrder e tiene i valori in campi primitivi, riusati richiesta dopo richiesta.
+ *   Accetta solo la forma fissa di questi messaggi (chiavi conosciute, numeri interi, stringhe senza escape):
+ *   per qualsiasi altra cosa parse() ritorna false e il chiamante usa org.json come prima
+ */
+
+package server;
+
+import shared.OrderSide;
+
+public final class FastJson {
+
+    private FastJson() {}
+
+// ========================================= SCRITTURA ==========================
+
+    public static StringBuilder beginObject(StringBuilder out) {
+        separator(out);
+        return out.append('{');
+    }
+
+    public static StringBuilder beginObject(StringBuilder out, String key) {
+        return name(out, key).append('{');
+    }
+
+    public static StringBuilder endObject(StringBuilder out) {
+        return out.append('}');
+    }
+
+    public static StringBuilder beginArray(StringBuilder out, String key) {
+        return name(out, key).append('[');
+    }
+
+    public static StringBuilder endArray(StringBuilder out) {
+        return out.append(']');
+    }
+
+    public static StringBuilder field(StringBuilder out, String key, long value) {
+        return name(out, key).append(value);
+    }
+
+    // come org.json: un double intero si scrive senza ".0"
+    public static StringBuilder field(StringBuilder out, String key, double value) {
+        name(out, key);
+        if (value == (long) value) {
+            return out.append((long) value);
+        }
+        return out.append(value);
+    }
+
+    public static StringBuilder field(StringBuilder out, String key, boolean value) {
+        return name(out, key).append(value);
+    }
+
+    public static StringBuilder field(StringBuilder out, String key, String value) {
+        name(out, key);
+        if (value == null) {
+            return out.append("null");
+        }
+        return string(out, value);
+    }
+
+    private static StringBuilder name(StringBuilder out, String key) {
+        separator(out);
+        return string(out, key).append(':');
+    }
+
+    private static void separator(StringBuilder out) {
+        if (out.length() > 0) {
+            char last = out.charAt(out.length() - 1);
+            if (last != '{' && last != '[' && last != ':' && last != '\n') {
+                out.append(',');
+            }
+        }
+    }
+
+    private static StringBuilder string(StringBuilder out, String value) {
+        out.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':  out.append("\\\""); break;
+                case '\\': out.append("\\\\"); break;
+                case '\n': out.append("\\n"); break;
+                case '\r': out.append("\\r"); break;
+                case '\t': out.append("\\t"); break;
+                default:
+                    if (c < 0x20) {
+                        out.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        out.append(c);
+                    }
+            }
+        }
+        return out.append('"');
+    }
+
+// ========================================= LETTURA ==========================
+
+    public static final int INSERT_LIMIT = 1;
+    public static final int INSERT_MARKET = 2;
+    public static final int INSERT_STOP = 3;
+    public static final int CANCEL = 4;
+
+    private static final String[] OPERATIONS = { null, "insertLimitOrder", "insertMarketOrder", "insertStopOrder", "cancelOrder" };
+
+    // una richiesta letta; un oggetto per ClientHandler, riusato
+    public static final class Request {
+        public int operation;
+        public OrderSide side;
+        public int size;
+        public int price;
+        public long orderId;
+        public String symbol;           // null = non presente
+        public boolean executionReport;
+        public boolean hasRequestId;
+        public long requestId;
+
+        private boolean hasUsername, hasSize, hasPrice, hasOrderId;
+        private String lastSymbol;      // ultimo simbolo letto, riusato se il client manda sempre lo stesso
+
+        private CharSequence in;
+        private int pos;
+
+        // true se la richiesta è una delle operazioni frequenti nella forma attesa
+        public boolean parse(CharSequence line) {
+            in = line;
+            pos = 0;
+            operation = 0;
+            side = null;
+            symbol = null;
+            executionReport = false;
+            hasRequestId = hasUsername = hasSize = hasPrice = hasOrderId = false;
+            try {
+                if (!readRoot() || !skipSpaces() || pos != in.length()) {
+                    return false;
+                }
+                return hasUsername && isComplete();
+            } finally {
+                in = null;
+            }
+        }
+
+        private boolean isComplete() {
+            switch (operation) {
+                case INSERT_LIMIT:
+                case INSERT_STOP:
+                    return side != null && hasSize && hasPrice;
+                case INSERT_MARKET:
+                    return side != null && hasSize;
+                case CANCEL:
+                    return hasOrderId;
+                default:
+                    return false;
+            }
+        }
+
+        private boolean readRoot() {
+            if (!expect('{')) return false;
+            if (peekIs('}')) return false;
+            do {
+                int key = readString();
+                if (key < 0 || !expect(':')) return false;
+                if (matches(key, "operation")) {
+                    operation = readOperation();
+                    if (operation == 0) return false;
+                } else if (matches(key, "values")) {
+                    if (!readValues()) return false;
+                } else if (matches(key, "requestId")) {
+                    skipSpaces();
+                    int start = pos;
+                    requestId = readLong();
+                    if (pos == start) return false;
+                    hasRequestId = true;
+                } else {
+                    return false;
+                }
+            } while (comma());
+            return expect('}');
+        }
+
+        private boolean readValues() {
+            if (!expect('{')) return false;
+            if (peekIs('}')) {
+                pos++;
+                return true;
+            }
+            do {
+                int key = readString();
+                if (key < 0 || !expect(':')) return false;
+                if (matches(key, "username")) {
+                    if (readString() < 0) return false;
+                    hasUsername = true;
+                } else if (matches(key, "type")) {
+                    int start = readString();
+                    if (start < 0) return false;
+                    side = parseSide(start, stringEnd);
+                    if (side == null) return false;
+                } else if (matches(key, "size")) {
+                    if (!readInt()) return false;
+                    size = intValue;
+                    hasSize = true;
+                } else if (matches(key, "price")) {
+                    if (!readInt()) return false;
+                    price = intValue;
+                    hasPrice = true;
+                } else if (matches(key, "orderId")) {
+                    skipSpaces();
+                    int start = pos;
+                    orderId = readLong();
+                    if (pos == start) return false;
+                    hasOrderId = true;
+                } else if (matches(key, "symbol")) {
+                    int start = readString();
+                    if (start < 0) return false;
+                    symbol = symbol(start, stringEnd);
+                } else if (matches(key, "executionReport")) {
+                    skipSpaces();
+                    if (regionIs(pos, "true")) {
+                        executionReport = true;
+                        pos += 4;
+                    } else if (regionIs(pos, "false")) {
+                        pos += 5;
+                    } else {
+                        return false;
+                    }
+                } else {
+                    return false;
+                }
+            } while (comma());
+            return expect('}');
+        }
+
+        private int readOperation() {
+            int start = readString();
+            if (start < 0) return 0;
+            for (int i = 1; i < OPERATIONS.length; i++) {
+                if (stringEnd - start == OPERATIONS[i].length() && regionIs(start, OPERATIONS[i])) {
+                    return i;
+                }
+            }
+            return 0;
+        }
+
+        // "bid"/"ask" senza distinguere maiuscole, come OrderSide.valueOf(type.toUpperCase())
+        private OrderSide parseSide(int start, int end) {
+            if (end - start != 3) return null;
+            if (regionIgnoreCase(start, "bid")) return OrderSide.BID;
+            if (regionIgnoreCase(start, "ask")) return OrderSide.ASK;
+            return null;
+        }
+
+        private String symbol(int start, int end) {
+            String previous = lastSymbol;
+            if (previous != null && previous.length() == end - start && regionIs(start, previous)) {
+                return previous;
+            }
+            lastSymbol = in.subSequence(start, end).toString();
+            return lastSymbol;
+        }
+
+        // ---- token ----
+
+        private int stringEnd; // fine (esclusa) dell'ultima stringa letta
+
+        // stringa senza escape: ritorna la posizione del primo carattere, -1 se non c'è o ha escape
+        private int readString() {
+            skipSpaces();
+            if (pos >= in.length() || in.charAt(pos) != '"') return -1;
+            int start = ++pos;
+            while (pos < in.length()) {
+                char c = in.charAt(pos);
+                if (c == '"') {
+                    stringEnd = pos++;
+                    return start;
+                }
+                if (c == '\\') {
+                    return -1;
+                }
+                pos++;
+            }
+            return -1;
+        }
+
+        private boolean matches(int keyStart, String name) {
+            return stringEnd - keyStart == name.length() && regionIs(keyStart, name);
+        }
+
+        private int intValue;
+
+        private boolean readInt() {
+            skipSpaces();
+            int start = pos;
+            long value = readLong();
+            if (pos == start || value > Integer.MAX_VALUE || value < Integer.MIN_VALUE) return false;
+            intValue = (int) value;
+            return true;
+        }
+
+        // intero con segno; lascia pos invariato se non è un intero semplice (decimali, esponente, troppe cifre)
+        private long readLong() {
+            int start = pos;
+            boolean negative = pos < in.length() && in.charAt(pos) == '-';
+            if (negative) pos++;
+            long value = 0;
+            int digits = 0;
+            while (pos < in.length()) {
+                char c = in.charAt(pos);
+                if (c < '0' || c > '9') break;
+                value = value * 10 + (c - '0');
+                digits++;
+                pos++;
+            }
+            if (digits == 0 || digits > 18 || (pos < in.length() && isNumberPart(in.charAt(pos)))) {
+                pos = start;
+                return 0;
+            }
+            return negative ? -value : value;
+        }
+
+        private static boolean isNumberPart(char c) {
+            return c == '.' || c == 'e' || c == 'E';
+        }
+
+        private boolean comma() {
+            skipSpaces();
+            if (pos < in.length() && in.charAt(pos) == ',') {
+                pos++;
+                return true;
+            }
+            return false;
+        }
+
+        private boolean expect(char c) {
+            skipSpaces();
+            if (pos < in.length() && in.charAt(pos) == c) {
+                pos++;
+                return true;
+            }
+            return false;
+        }
+
+        private boolean peekIs(char c) {
+            skipSpaces();
+            return pos < in.length() && in.charAt(pos) == c;
+        }
+
+        private boolean skipSpaces() {
+            while (pos < in.length() && Character.isWhitespace(in.charAt(pos))) {
+                pos++;
+            }
+            return true;
+        }
+
+        private boolean regionIs(int start, String text) {
+            if (start + text.length() > in.length()) return false;
+            for (int i = 0; i < text.length(); i++) {
+                if (in.charAt(start + i) != text.charAt(i)) return false;
+            }
+            return true;
+        }
+
+        private boolean regionIgnoreCase(int start, String lowerCase) {
+            for (int i = 0; i < lowerCase.length(); i++) {
+                if (Character.toLowerCase(in.charAt(start + i)) != lowerCase.charAt(i)) return false;
+            }
+            return true;
+        }
+    }
+}
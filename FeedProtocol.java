@@ -0,0 +1,76 @@
+/*
+ * FeedProtocol.java
+ * cosa fa questa classe:
+ * - formato binario del feed pubblico UDP multicast (trade e top of book), condiviso da server e client
+ * - un pacchetto = header + uno o più messaggi, big endian, al massimo MAX_PACKET_SIZE byte (sta in un MTU)
+ * - header: magic (2 byte), versione (1), numero messaggi (1), sequenza del primo messaggio (8)
+ *   i messaggi del pacchetto hanno sequenze consecutive: un lettore che vede un salto sa quanti messaggi ha perso
+ * - messaggio TRADE: tipo (1), simbolo (8, ASCII con padding di spazi), sequenza del trade nel book (8),
+ *   prezzo (4), quantità (4), ora in millisecondi (8)
+ * - messaggio TOP_OF_BOOK: tipo (1), simbolo (8), sequenza del top of book (8), bid prezzo (4), bid quantità (8),
+ *   ask prezzo (4), ask quantità (8), prezzo di mercato (4). Prezzo -1 = lato vuoto
+ */
+
+package shared;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+public final class FeedProtocol {
+    public static final short MAGIC = (short) 0xC055;
+    public static final byte VERSION = 1;
+    public static final int MAX_PACKET_SIZE = 1400;
+
+    public static final int HEADER_SIZE = 12;
+    public static final int SYMBOL_LENGTH = 8;
+
+    public static final byte TRADE = 1;
+    public static final byte TOP_OF_BOOK = 2;
+    public static final int TRADE_SIZE = 1 + SYMBOL_LENGTH + 8 + 4 + 4 + 8;
+    public static final int TOP_OF_BOOK_SIZE = 1 + SYMBOL_LENGTH + 8 + 4 + 8 + 4 + 8 + 4;
+
+    private FeedProtocol() {}
+
+    // l'header si scrive quando il pacchetto è completo, nei primi HEADER_SIZE byte lasciati liberi
+    public static void writeHeader(ByteBuffer packet, long firstSequence, int count) {
+        packet.putShort(0, MAGIC);
+        packet.put(2, VERSION);
+        packet.put(3, (byte) count);
+        packet.putLong(4, firstSequence);
+    }
+
+    public static void putTrade(ByteBuffer packet, String symbol, long tradeSequence, int price, int size, long time) {
+        packet.put(TRADE);
+        putSymbol(packet, symbol);
+        packet.putLong(tradeSequence);
+        packet.putInt(price);
+        packet.putInt(size);
+        packet.putLong(time);
+    }
+
+    public static void putTopOfBook(ByteBuffer packet, String symbol, long sequence, int bidPrice, long bidSize,
+                                    int askPrice, long askSize, int prezzoMercato) {
+        packet.put(TOP_OF_BOOK);
+        putSymbol(packet, symbol);
+        packet.putLong(sequence);
+        packet.putInt(bidPrice);
+        packet.putLong(bidSize);
+        packet.putInt(askPrice);
+        packet.putLong(askSize);
+        packet.putInt(prezzoMercato);
+    }
+
+    // simboli più lunghi di SYMBOL_LENGTH vengono troncati
+    public static void putSymbol(ByteBuffer packet, String symbol) {
+        byte[] bytes = symbol.getBytes(StandardCharsets.US_ASCII);
+        for (int i = 0; i < SYMBOL_LENGTH; i++) {
+            packet.put(i < bytes.length ? bytes[i] : (byte) ' ');
+        }
+    }
+
+    public static String readSymbol(ByteBuffer packet) {
+        byte[] bytes = new byte[SYMBOL_LENGTH];
+        packet.get(bytes);
+        return new String(bytes, StandardCharsets.US_ASCII).trim();
+    }
+}
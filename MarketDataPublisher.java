@@ -0,0 +1,317 @@
+/*
+ * MarketDataPublisher.java
+ * cosa fa questa classe:
+ * - gestisce le sottoscrizioni market data via TCP (subscribeMarketData / unsubscribeMarketData)
+ * - un thread ("market-data-publisher") ogni market_data_interval_ms confronta, per ogni sottoscrizione,
+ *   l'ultima profondità inviata con l'ultima pubblicata dal book e manda solo i livelli cambiati (prezzo, lato,
+ *   nuova quantità; quantità 0 = livello sparito dai primi depth_levels)
+ * - manda anche i trade prints nuovi letti dal TradeTape del book
+ * - ogni messaggio ha un numero di sequenza per sottoscrizione; ogni market_data_snapshot_interval_ms (e alla
+ *   sottoscrizione) arriva una fotografia completa. Tutti i messaggi di profondità portano il checksum del book
+ *   risultante (vedi DepthSnapshot.checksum), così il client si accorge se deve risincronizzarsi
+ * - invio: ogni sottoscrizione ha un buffer di messaggi in attesa, limitato a market_data_max_pending caratteri,
+ *   svuotato da un solo invio alla volta su un thread del pool (pool che cresce: un client che non legge blocca
+ *   solo il thread del suo invio, mai quelli degli altri)
+ * - client lento: se il buffer supera il limite i messaggi in attesa vengono scartati e la sottoscrizione
+ *   riparte da una fotografia completa (i trade persi si vedono dal salto in lastTradeSequence). Se una
+ *   scrittura resta bloccata più di market_data_send_timeout_ms la connessione viene chiusa: è l'unico modo
+ *   per sbloccare una scrittura su socket bloccante (modalità threads e virtual)
+ * - il matching non fa nessun lavoro in più: il publisher legge solo fotografie immutabili e il TradeTape
+ */
+
+package server;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+public class MarketDataPublisher implements Runnable {
+
+    private static final long INTERVAL_MS = ServerConfig.getLong("market_data_interval_ms", 50);
+    private static final long SNAPSHOT_INTERVAL_MS = ServerConfig.getLong("market_data_snapshot_interval_ms", 5000);
+    private static final int MAX_PENDING = ServerConfig.getInt("market_data_max_pending", 256 * 1024);
+    private static final long SEND_TIMEOUT_MS = ServerConfig.getLong("market_data_send_timeout_ms", 5000);
+    private static final int MAX_TRADES_PER_MESSAGE = 256;
+
+    private final OrderBookRegistry orderBooks;
+    private final List<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+    private final ExecutorService senders;
+    private final Thread publisherThread;
+    private volatile boolean running = true;
+
+    // buffer per leggere il TradeTape, usati solo dal thread publisher
+    private final long[] tradeSequences = new long[MAX_TRADES_PER_MESSAGE];
+    private final int[] tradePrices = new int[MAX_TRADES_PER_MESSAGE];
+    private final int[] tradeSizes = new int[MAX_TRADES_PER_MESSAGE];
+    private final long[] tradeTimes = new long[MAX_TRADES_PER_MESSAGE];
+
+    public MarketDataPublisher(OrderBookRegistry orderBooks) {
+        this.orderBooks = orderBooks;
+        this.senders = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "market-data-sender");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.publisherThread = new Thread(this, "market-data-publisher");
+        this.publisherThread.setDaemon(true);
+        this.publisherThread.start();
+    }
+
+// ========================================= SOTTOSCRIZIONI ==========================
+
+    // false se il simbolo non è trattato; una seconda sottoscrizione allo stesso simbolo non fa nulla
+    public boolean subscribe(ClientHandler client, String symbol) {
+        OrderBook orderBook = orderBooks.getOrderBook(symbol);
+        if (orderBook == null) {
+            return false;
+        }
+        synchronized (this) {
+            if (find(client, symbol) == null) {
+                subscriptions.add(new Subscription(client, symbol, orderBook));
+            }
+        }
+        return true;
+    }
+
+    public boolean unsubscribe(ClientHandler client, String symbol) {
+        synchronized (this) {
+            Subscription subscription = find(client, symbol);
+            return subscription != null && subscriptions.remove(subscription);
+        }
+    }
+
+    // alla chiusura della connessione
+    public void unsubscribeAll(ClientHandler client) {
+        subscriptions.removeIf(subscription -> subscription.client == client);
+    }
+
+    private Subscription find(ClientHandler client, String symbol) {
+        for (Subscription subscription : subscriptions) {
+            if (subscription.client == client && subscription.symbol.equals(symbol)) {
+                return subscription;
+            }
+        }
+        return null;
+    }
+
+// ========================================= CICLO DI PUBBLICAZIONE ==========================
+
+    @Override
+    public void run() {
+        while (running) {
+            long now = System.currentTimeMillis();
+            for (Subscription subscription : subscriptions) {
+                long sendStarted = subscription.sendStarted;
+                if (sendStarted != 0 && now - sendStarted >= SEND_TIMEOUT_MS) {
+                    dropClient(subscription, now - sendStarted);
+                    continue;
+                }
+                try {
+                    publish(subscription, now);
+                } catch (Exception e) {
+                    System.err.println("Errore market data per " + subscription.symbol + ": " + e.getMessage());
+                }
+            }
+            try {
+                Thread.sleep(INTERVAL_MS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private void publish(Subscription subscription, long now) {
+        DepthSnapshot depth = subscription.orderBook.getDepthSnapshot();
+        StringBuilder messages = new StringBuilder();
+
+        if (subscription.lastSent == null || now - subscription.lastSnapshotTime >= SNAPSHOT_INTERVAL_MS) {
+            appendLine(messages, snapshotMessage(subscription, depth));
+            subscription.lastSent = depth;
+            subscription.lastSnapshotTime = now;
+        } else if (depth != subscription.lastSent) {
+            JSONArray updates = new JSONArray();
+            diffSide(subscription.lastSent.getBids(), depth.getBids(), "bid", updates);
+            diffSide(subscription.lastSent.getAsks(), depth.getAsks(), "ask", updates);
+            subscription.lastSent = depth;
+            if (updates.length() > 0) {
+                JSONObject message = newMessage(subscription, "depthUpdate");
+                message.put("updates", updates);
+                message.put("checksum", depth.checksum());
+                appendLine(messages, message);
+            }
+        }
+
+        int count = subscription.orderBook.getTradeTape().readAfter(subscription.lastTradeSequence,
+            tradeSequences, tradePrices, tradeSizes, tradeTimes);
+        if (count > 0) {
+            JSONArray trades = new JSONArray();
+            for (int i = 0; i < count; i++) {
+                JSONObject trade = new JSONObject();
+                trade.put("tradeSequence", tradeSequences[i]);
+                trade.put("price", tradePrices[i]);
+                trade.put("size", tradeSizes[i]);
+                trade.put("time", tradeTimes[i]);
+                trades.put(trade);
+            }
+            subscription.lastTradeSequence = tradeSequences[count - 1];
+            JSONObject message = newMessage(subscription, "trades");
+            message.put("trades", trades);
+            appendLine(messages, message);
+        }
+
+        if (messages.length() > 0) {
+            enqueue(subscription, messages);
+        }
+    }
+
+// ========================================= INVIO ==========================
+
+    // accoda i messaggi nel buffer della sottoscrizione e avvia l'invio se non ce n'è già uno in corso
+    private void enqueue(Subscription subscription, StringBuilder messages) {
+        boolean startSender = false;
+        boolean overflow = false;
+        synchronized (subscription) {
+            if (subscription.pending.length() + messages.length() > MAX_PENDING) {
+                subscription.pending.setLength(0);
+                overflow = true;
+            } else {
+                subscription.pending.append(messages);
+                if (!subscription.sending) {
+                    subscription.sending = true;
+                    startSender = true;
+                }
+            }
+        }
+        if (overflow) {
+            resnapshot(subscription);
+        } else if (startSender) {
+            senders.execute(() -> drain(subscription));
+        }
+    }
+
+    // client rimasto indietro: i messaggi in attesa sono scartati, al prossimo giro riceve una fotografia
+    // completa e i trade ripartono dall'ultimo del tape
+    private void resnapshot(Subscription subscription) {
+        System.err.println("Market data: client lento su " + subscription.symbol
+            + ", scarto i messaggi in attesa e rimando la fotografia");
+        subscription.lastSent = null;
+        subscription.lastTradeSequence = subscription.orderBook.getTradeTape().getLastSequence();
+    }
+
+    // thread del pool: scrive il buffer finchè non resta vuoto
+    private void drain(Subscription subscription) {
+        while (true) {
+            String lines;
+            synchronized (subscription) {
+                if (subscription.pending.length() == 0) {
+                    subscription.sending = false;
+                    return;
+                }
+                lines = subscription.pending.toString();
+                subscription.pending.setLength(0);
+            }
+            subscription.sendStarted = System.currentTimeMillis();
+            boolean written = subscription.client.sendLines(lines);
+            subscription.sendStarted = 0;
+            if (!written) {
+                subscriptions.remove(subscription); // connessione chiusa
+                synchronized (subscription) {
+                    subscription.pending.setLength(0);
+                    subscription.sending = false;
+                }
+                return;
+            }
+        }
+    }
+
+    // scrittura bloccata da troppo: chiudo la connessione, la scrittura in corso esce con errore e il
+    // ClientHandler fa la sua disconnessione normale (anche unsubscribeAll)
+    private void dropClient(Subscription subscription, long blockedMs) {
+        System.err.println("Market data: scrittura verso il client di " + subscription.symbol + " bloccata da "
+            + blockedMs + " ms, chiudo la connessione");
+        unsubscribeAll(subscription.client);
+        subscription.client.dropConnection();
+    }
+
+    private JSONObject snapshotMessage(Subscription subscription, DepthSnapshot depth) {
+        JSONObject message = newMessage(subscription, "snapshot");
+        JSONObject book = depth.toJSON(subscription.symbol, OrderBook.getDepthLevels());
+        message.put("bids", book.getJSONArray("bids"));
+        message.put("asks", book.getJSONArray("asks"));
+        message.put("checksum", depth.checksum());
+        message.put("lastTradeSequence", subscription.lastTradeSequence);
+        return message;
+    }
+
+    // livelli nuovi o cambiati con la nuova quantità, livelli spariti con quantità 0
+    private static void diffSide(DepthSnapshot.Side before, DepthSnapshot.Side after, String side, JSONArray updates) {
+        for (int i = 0; i < after.getLevels(); i++) {
+            int j = before.indexOf(after.getPrice(i));
+            if (j == -1 || before.getSize(j) != after.getSize(i) || before.getOrderCount(j) != after.getOrderCount(i)) {
+                updates.put(levelUpdate(side, after.getPrice(i), after.getSize(i), after.getOrderCount(i)));
+            }
+        }
+        for (int j = 0; j < before.getLevels(); j++) {
+            if (after.indexOf(before.getPrice(j)) == -1) {
+                updates.put(levelUpdate(side, before.getPrice(j), 0, 0));
+            }
+        }
+    }
+
+    private static JSONObject levelUpdate(String side, int price, long size, int orders) {
+        JSONObject update = new JSONObject();
+        update.put("side", side);
+        update.put("price", price);
+        update.put("size", size);
+        update.put("orders", orders);
+        return update;
+    }
+
+    private static JSONObject newMessage(Subscription subscription, String event) {
+        JSONObject message = new JSONObject();
+        message.put("type", "marketData");
+        message.put("event", event);
+        message.put("symbol", subscription.symbol);
+        message.put("seq", ++subscription.sequence);
+        return message;
+    }
+
+    private static void appendLine(StringBuilder messages, JSONObject message) {
+        messages.append(message.toString()).append('\n');
+    }
+
+    public void stop() {
+        running = false;
+        publisherThread.interrupt();
+        senders.shutdown();
+    }
+
+// ========================================= STRUTTURE DI SUPPORTO ==========================
+
+    // stato di un client iscritto a un simbolo, modificato solo dal thread publisher
+    // (tranne pending e sending, protetti dal monitor della sottoscrizione, e sendStarted)
+    private static final class Subscription {
+        final ClientHandler client;
+        final String symbol;
+        final OrderBook orderBook;
+        final StringBuilder pending = new StringBuilder(); // messaggi in attesa di invio
+        boolean sending;                // un thread del pool sta svuotando pending
+        volatile long sendStarted;      // inizio della scrittura in corso, 0 = nessuna scrittura
+        DepthSnapshot lastSent;   // null = deve ancora ricevere la prima fotografia
+        long lastSnapshotTime;
+        long lastTradeSequence;
+        long sequence;            // sequenza dei messaggi di questa sottoscrizione
+
+        Subscription(ClientHandler client, String symbol, OrderBook orderBook) {
+            this.client = client;
+            this.symbol = symbol;
+            this.orderBook = orderBook;
+            // i trade precedenti alla sottoscrizione non vengono rimandati
+            this.lastTradeSequence = orderBook.getTradeTape().getLastSequence();
+        }
+    }
+}
@@ -0,0 +1,165 @@
+/*
+ * MatchingAllocationBenchmark.java
+ * cosa fa questa classe:
+ * - misura i byte allocati dal thread corrente (com.sun.management.ThreadMXBean.getThreadAllocatedBytes)
+ *   per evento del book a regime, dopo un riscaldamento, in tre fasi sullo stesso book:
+ *   1. matching: matchBidOrder / matchAskOrder di un market order da 1 contro un ordine limit che resta nel book
+ *   2. market order completo: executeMarketOrderUnlocked, cioè matching + cascata stop + publishMarketData
+ *   3. limit order che incrocia: addLimitOrderUnlocked di un limit da 1 al prezzo opposto (entra e viene eseguito)
+ * - la garanzia "nessuna allocazione" è solo della fase 1, e solo con book_engine=ladder e pooled_matching=true
+ *   (con il treemap le chiavi Integer vengono boxate, senza pool ogni fill crea un Trade). Con un'altra config
+ *   si rifiuta di partire. Esce con codice 1 se la fase 1 alloca più di un byte per match
+ * - le fasi 2 e 3 sono il percorso reale e vengono solo stampate: publishMarketData crea per scelta una nuova
+ *   fotografia TopOfBook e una DepthSnapshot (copy on write, lette senza lock da altri thread) a ogni evento
+ *   che le cambia, e un limit in ingresso alloca il suo OrderNode. Stampa anche quante fotografie per evento
+ * - notifiche e persistenza sono sostituite da versioni vuote: allocano per ogni fill (TradeNotification,
+ *   righe di log) e sono fuori dalla misura. Gli ordini in arrivo vengono creati prima di ogni fase
+ * - uso: java server.MatchingAllocationBenchmark [eventi per fase] [riscaldamento] (default 200000 200000)
+ */
+
+package server;
+
+import shared.*;
+import java.lang.management.ManagementFactory;
+import java.util.List;
+
+public class MatchingAllocationBenchmark {
+
+    private static final int BID_PRICE = 1000;
+    private static final int ASK_PRICE = 1010;
+
+    private static final int MATCH = 1;
+    private static final int MARKET_ORDER = 2;
+    private static final int LIMIT_ORDER = 3;
+
+    private final com.sun.management.ThreadMXBean threads;
+    private final long threadId = Thread.currentThread().getId();
+    private final OrderBook book = new OrderBook("ALLOC", new NoPersistence(), new NoNotifications());
+    private long nextOrderId = 1;
+
+    private MatchingAllocationBenchmark(com.sun.management.ThreadMXBean threads) {
+        this.threads = threads;
+    }
+
+    public static void main(String[] args) {
+        int events = (args.length > 0) ? Integer.parseInt(args[0]) : 200_000;
+        int warmup = (args.length > 1) ? Integer.parseInt(args[1]) : 200_000;
+
+        String bookEngine = ServerConfig.getString("book_engine", "treemap");
+        boolean pooled = ServerConfig.getBoolean("pooled_matching", false);
+        if (!bookEngine.equalsIgnoreCase("ladder") || !pooled) {
+            System.err.println("Serve book_engine=ladder e pooled_matching=true in config_server.txt (ora: "
+                + bookEngine + ", pooled_matching=" + pooled + ")");
+            System.exit(2);
+        }
+
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean)) {
+            System.err.println("Questa JVM non misura le allocazioni per thread");
+            System.exit(2);
+        }
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+        threads.setThreadAllocatedMemoryEnabled(true);
+
+        MatchingAllocationBenchmark benchmark = new MatchingAllocationBenchmark(threads);
+        // un ordine per lato che non si esaurisce mai: ogni evento è un fill parziale allo stesso prezzo
+        int total = 3 * (warmup + events);
+        benchmark.book.addLimitOrder(new LimitOrder(benchmark.nextOrderId++, "maker", OrderSide.BID, total + 1, BID_PRICE));
+        benchmark.book.addLimitOrder(new LimitOrder(benchmark.nextOrderId++, "maker", OrderSide.ASK, total + 1, ASK_PRICE));
+
+        double matchBytes = benchmark.runPhase("matching", MATCH, events, warmup);
+        benchmark.runPhase("market order completo", MARKET_ORDER, events, warmup);
+        benchmark.runPhase("limit order che incrocia", LIMIT_ORDER, events, warmup);
+
+        if (matchBytes >= 1) {
+            System.err.println("Il matching alloca a regime");
+            System.exit(1);
+        }
+        System.out.println("OK: nessuna allocazione per match a regime");
+    }
+
+    // ritorna i byte allocati per evento
+    private double runPhase(String name, int kind, int events, int warmup) {
+        Order[] orders = createOrders(kind, warmup + events);
+        runEvents(kind, orders, 0, warmup);
+
+        // costo della misura stessa, da togliere al risultato
+        long overheadStart = threads.getThreadAllocatedBytes(threadId);
+        long overhead = threads.getThreadAllocatedBytes(threadId) - overheadStart;
+
+        long topBefore = book.getTopOfBook().getSequence();
+        long depthBefore = book.getDepthSnapshot().getSequence();
+        long start = threads.getThreadAllocatedBytes(threadId);
+        long startNanos = System.nanoTime();
+        runEvents(kind, orders, warmup, orders.length);
+        long elapsedNanos = System.nanoTime() - startNanos;
+        long allocated = Math.max(0, threads.getThreadAllocatedBytes(threadId) - start - overhead);
+        long snapshots = (book.getTopOfBook().getSequence() - topBefore) + (book.getDepthSnapshot().getSequence() - depthBefore);
+
+        double perEvent = (double) allocated / events;
+        System.out.printf("%-26s %d eventi, %d byte, %.4f byte/evento, %.2f fotografie/evento, %.1f ns/evento%n",
+            name + ":", events, allocated, perEvent, (double) snapshots / events, (double) elapsedNanos / events);
+        return perEvent;
+    }
+
+    // alternati comprando e vendendo, così i due ordini che restano nel book si consumano insieme
+    private Order[] createOrders(int kind, int count) {
+        Order[] orders = new Order[count];
+        for (int i = 0; i < count; i++) {
+            boolean buy = (i % 2 == 0);
+            OrderSide side = buy ? OrderSide.BID : OrderSide.ASK;
+            if (kind == LIMIT_ORDER) {
+                orders[i] = new LimitOrder(nextOrderId++, "taker", side, 1, buy ? ASK_PRICE : BID_PRICE);
+            } else {
+                orders[i] = new MarketOrder(nextOrderId++, "taker", side, 1);
+            }
+        }
+        return orders;
+    }
+
+    private void runEvents(int kind, Order[] orders, int from, int to) {
+        for (int i = from; i < to; i++) {
+            Order order = orders[i];
+            boolean executed;
+            if (kind == MATCH) {
+                executed = (order.getSide() == OrderSide.BID) ? book.matchBidOrder(order) : book.matchAskOrder(order);
+            } else if (kind == MARKET_ORDER) {
+                executed = book.executeMarketOrderUnlocked((MarketOrder) order, null);
+            } else {
+                executed = book.addLimitOrderUnlocked((LimitOrder) order, null) && order.getRemainingSize() == 0;
+            }
+            if (!executed) {
+                throw new IllegalStateException("ordine " + order.getOrderId() + " non eseguito");
+            }
+        }
+    }
+
+// ========================================= NOTIFICHE E PERSISTENZA VUOTE ==========================
+
+    private static final class NoPersistence extends PersistenceManager {
+        NoPersistence() {
+            super(null, "ALLOC", false);
+        }
+
+        @Override
+        public void persistTrades(List<Trade> trades) {}
+
+        @Override
+        public void logOrderUpdate(Order order) {}
+
+        @Override
+        public void logOrderCancellation(Order order, String cancelledBy) {}
+    }
+
+    private static final class NoNotifications extends NotificationService {
+        NoNotifications() {
+            super(null);
+        }
+
+        @Override
+        public void notifyBuyer(Trade trade) {}
+
+        @Override
+        public void notifySeller(Trade trade) {}
+    }
+}
@@ -0,0 +1,252 @@
+/*
+ * MatchingEngine.java
+ * cosa fa questa classe:
+ * - un solo thread ("engine") possiede l'OrderBook e applica tutte le operazioni in ordine: niente lock sul book
+ * - i thread dei client pubblicano i comandi (insert limit/stop, market, cancel, batch, ordini aperti di un utente)
+ *   in un ring buffer pre-allocato
+ *   e aspettano il risultato su una Completion riusata per thread
+ * - il ring buffer è lock-free: i produttori prenotano uno slot con un contatore atomico, lo riempiono
+ *   e lo pubblicano scrivendo il numero di sequenza (volatile); l'engine li consuma in ordine di sequenza
+ * - la strategia di attesa (busy spin, yield, park) è configurabile, vedi WaitStrategy
+ * - attivato da config con engine_mode=single_writer (default: locked, cioè OrderBook con il suo ReentrantLock)
+ */
+
+package server;
+
+import shared.*;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+public class MatchingEngine implements OrderEntry, Runnable {
+
+    // tipi di comando
+    private static final int INSERT_LIMIT = 1;
+    private static final int INSERT_STOP = 2;
+    private static final int MARKET = 3;
+    private static final int CANCEL = 4;
+    private static final int BATCH = 5;
+    private static final int LIST_OPEN = 6;
+    private static final int CANCEL_ALL = 7;
+
+    private final OrderBook orderBook;
+    private final WaitStrategy waitStrategy;
+    private final Slot[] ring;
+    private final int mask;
+
+    private final AtomicLong claimSequence = new AtomicLong(-1);    // ultimo slot prenotato dai produttori
+    private final AtomicLong consumedSequence = new AtomicLong(-1); // ultimo slot eseguito dall'engine
+    private final Thread engineThread;
+    private volatile boolean running = true;
+
+    // una Completion per thread client: ogni thread ha al massimo una richiesta in volo
+    private final ThreadLocal<Completion> completions = ThreadLocal.withInitial(Completion::new);
+
+    public MatchingEngine(OrderBook orderBook, int ringSize, WaitStrategy waitStrategy, String threadName) {
+        this.orderBook = orderBook;
+        orderBook.setSingleWriter();
+        this.waitStrategy = waitStrategy;
+
+        // dimensione potenza di 2, così l'indice è seq & mask
+        int size = Integer.highestOneBit(Math.max(2, ringSize - 1)) << 1;
+        this.ring = new Slot[size];
+        for (int i = 0; i < size; i++) {
+            ring[i] = new Slot();
+        }
+        this.mask = size - 1;
+
+        this.engineThread = new Thread(this, threadName);
+        this.engineThread.setDaemon(true);
+        this.engineThread.start();
+    }
+
+// ========================================= LATO CLIENT (produttori) ==========================
+
+    @Override
+    public boolean addLimitOrder(LimitOrder order, ExecutionReport report) {
+        return submit(INSERT_LIMIT, order, 0, null, report) == 1;
+    }
+
+    @Override
+    public boolean addStopOrder(StopOrder order, ExecutionReport report) {
+        return submit(INSERT_STOP, order, 0, null, report) == 1;
+    }
+
+    @Override
+    public boolean executeMarketOrder(MarketOrder marketOrder, ExecutionReport report) {
+        return submit(MARKET, marketOrder, 0, null, report) == 1;
+    }
+
+    @Override
+    public int cancelOrder(long orderId, String username) {
+        return (int) submit(CANCEL, null, orderId, username, null);
+    }
+
+    // tutto il batch è un solo comando: l'engine lo applica senza alternarlo ai comandi degli altri client
+    @Override
+    public void applyBatch(List<OrderBatch.Item> items, String username) {
+        submit(BATCH, null, 0, username, null, items, null);
+    }
+
+    // la lista la riempie l'engine; il client la legge solo dopo la Completion, che ne rende visibile il contenuto
+    @Override
+    public void listOpenOrders(String username, List<OpenOrder> out) {
+        submit(LIST_OPEN, null, 0, username, null, null, out);
+    }
+
+    @Override
+    public int cancelAllOrders(String username) {
+        return (int) submit(CANCEL_ALL, null, 0, username, null);
+    }
+
+    private long submit(int type, Order order, long orderId, String username, ExecutionReport report) {
+        return submit(type, order, orderId, username, report, null, null);
+    }
+
+    private long submit(int type, Order order, long orderId, String username, ExecutionReport report,
+                        List<OrderBatch.Item> batch, List<OpenOrder> openOrders) {
+        long sequence = claimSequence.incrementAndGet();
+
+        // aspetto che l'engine abbia liberato lo slot (ring pieno)
+        int spins = 0;
+        while (sequence - consumedSequence.get() > ring.length) {
+            waitStrategy.idle(spins++);
+        }
+
+        Completion completion = completions.get();
+        completion.prepare();
+
+        Slot slot = ring[(int) (sequence & mask)];
+        slot.type = type;
+        slot.order = order;
+        slot.orderId = orderId;
+        slot.username = username;
+        slot.report = report;
+        slot.batch = batch;
+        slot.openOrders = openOrders;
+        slot.completion = completion;
+        slot.publishedSequence = sequence; // pubblicazione: scrittura volatile dopo i campi
+
+        return completion.await(waitStrategy);
+    }
+
+// ========================================= LATO ENGINE (unico consumatore) ==========================
+
+    @Override
+    public void run() {
+        long next = 0;
+        int spins = 0;
+
+        while (running) {
+            Slot slot = ring[(int) (next & mask)];
+            if (slot.publishedSequence != next) {
+                if (orderBook.hasPendingStops()) {
+                    // nessun comando in arrivo: continuo la cascata di stop rimasta oltre il budget
+                    runPendingStops();
+                    continue;
+                }
+                waitStrategy.idle(spins++);
+                continue;
+            }
+            spins = 0;
+
+            long result = execute(slot);
+
+            Completion completion = slot.completion;
+            slot.order = null;
+            slot.username = null;
+            slot.report = null;
+            slot.batch = null;
+            slot.openOrders = null;
+            slot.completion = null;
+            consumedSequence.lazySet(next); // lo slot può essere riusato
+            next++;
+
+            completion.complete(result, waitStrategy == WaitStrategy.PARK);
+        }
+    }
+
+    // come execute: un errore nella cascata non deve fermare l'unico thread del book
+    private void runPendingStops() {
+        try {
+            orderBook.runPendingStops();
+        } catch (Exception e) {
+            System.err.println("Errore nella cascata di stop del MatchingEngine: " + e.getMessage());
+        }
+    }
+
+    private long execute(Slot slot) {
+        try {
+            switch (slot.type) {
+                case INSERT_LIMIT:
+                    return orderBook.addLimitOrderUnlocked((LimitOrder) slot.order, slot.report) ? 1 : 0;
+                case INSERT_STOP:
+                    return orderBook.addStopOrderUnlocked((StopOrder) slot.order, slot.report) ? 1 : 0;
+                case MARKET:
+                    return orderBook.executeMarketOrderUnlocked((MarketOrder) slot.order, slot.report) ? 1 : 0;
+                case CANCEL:
+                    return orderBook.cancelOrderUnlocked(slot.orderId, slot.username);
+                case BATCH:
+                    orderBook.applyBatchUnlocked(slot.batch, slot.username);
+                    return 1;
+                case LIST_OPEN:
+                    orderBook.listOpenOrdersUnlocked(slot.username, slot.openOrders);
+                    return 1;
+                case CANCEL_ALL:
+                    return orderBook.cancelAllOrdersUnlocked(slot.username);
+                default:
+                    System.err.println("Comando engine sconosciuto: " + slot.type);
+            }
+        } catch (Exception e) {
+            System.err.println("Errore nel MatchingEngine: " + e.getMessage());
+        }
+        // errore: per cancel 101, per gli altri false
+        return (slot.type == CANCEL) ? 101 : 0;
+    }
+
+    public void stop() {
+        running = false;
+    }
+
+// ========================================= STRUTTURE DI SUPPORTO ==========================
+
+    private static final class Slot {
+        volatile long publishedSequence = -1;
+        int type;
+        Order order;
+        long orderId;
+        String username;
+        ExecutionReport report;
+        List<OrderBatch.Item> batch;
+        List<OpenOrder> openOrders;
+        Completion completion;
+    }
+
+    // attesa del risultato di un comando, riusata dallo stesso thread client
+    private static final class Completion {
+        private volatile boolean done;
+        private long result;
+        private volatile Thread waiter;
+
+        void prepare() {
+            done = false;
+            waiter = Thread.currentThread();
+        }
+
+        void complete(long value, boolean wakeUp) {
+            result = value;
+            done = true; // scrittura volatile: rende visibile anche result
+            if (wakeUp) {
+                LockSupport.unpark(waiter);
+            }
+        }
+
+        long await(WaitStrategy waitStrategy) {
+            int spins = 0;
+            while (!done) {
+                waitStrategy.idle(spins++);
+            }
+            return result;
+        }
+    }
+}
@@ -0,0 +1,181 @@
+/*
+ * MulticastFeedPublisher.java
+ * cosa fa questa classe:
+ * - feed pubblico UDP multicast: ogni trade e ogni cambio del top of book di tutti i book vengono inviati
+ *   una sola volta al gruppo multicast, quanti che siano i client in ascolto (costo costante per il server)
+ * - un thread ("multicast-feed") legge il TradeTape e il TopOfBookTape di ogni book, quindi il matching
+ *   non fa I/O di rete; più messaggi vengono messi nello stesso pacchetto finchè ci stanno (formato in FeedProtocol)
+ * - "ogni cambio del top" = ogni fotografia pubblicata dal book, cioè una per evento (ordine, cancellazione,
+ *   batch): i passaggi intermedi dentro lo stesso evento non vengono pubblicati. I cambi tra due giri del
+ *   feed non vengono fusi; se il feed resta indietro più di top_of_book_tape_size si perdono i più vecchi
+ *   e chi ascolta lo vede dal salto nella sequenza del top of book
+ * - ogni messaggio ha una sequenza globale del feed, così chi ascolta si accorge dei pacchetti persi
+ * - config: multicast_enabled (default false), multicast_group, multicast_port, multicast_interface
+ *   (es. lo per provarlo in locale), multicast_ttl, multicast_interval_us; top_of_book_tape_size (OrderBook)
+ */
+
+package server;
+
+import shared.*;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.InetAddress;
+import java.net.MulticastSocket;
+import java.net.NetworkInterface;
+import java.nio.ByteBuffer;
+import java.util.concurrent.locks.LockSupport;
+
+public class MulticastFeedPublisher implements Runnable {
+
+    private static final int MAX_TRADES_PER_ROUND = 256;
+    private static final int MAX_TOPS_PER_ROUND = 256;
+
+    private final OrderBookRegistry orderBooks;
+    private final String[] symbols;
+    private final long[] lastTradeSequence;      // per simbolo, ultimo trade inviato
+    private final long[] lastTopOfBookSequence;  // per simbolo, ultimo top of book inviato
+    private final MulticastSocket socket;
+    private final InetAddress group;
+    private final int port;
+    private final long intervalNanos;
+    private final Thread feedThread;
+    private volatile boolean running = true;
+
+    // pacchetto in costruzione e sequenza del prossimo messaggio, usati solo dal thread del feed
+    private final ByteBuffer packet = ByteBuffer.allocate(FeedProtocol.MAX_PACKET_SIZE);
+    private final DatagramPacket datagram;
+    private long nextSequence = 1;
+    private long packetFirstSequence;
+    private int packetCount;
+    private long packetsSent;
+
+    private final long[] tradeSequences = new long[MAX_TRADES_PER_ROUND];
+    private final int[] tradePrices = new int[MAX_TRADES_PER_ROUND];
+    private final int[] tradeSizes = new int[MAX_TRADES_PER_ROUND];
+    private final long[] tradeTimes = new long[MAX_TRADES_PER_ROUND];
+    private final TopOfBook[] tops = new TopOfBook[MAX_TOPS_PER_ROUND];
+
+    // null se il feed è disattivato da config o non si riesce ad aprire la socket
+    public static MulticastFeedPublisher fromConfig(OrderBookRegistry orderBooks) {
+        if (!ServerConfig.getBoolean("multicast_enabled", false)) {
+            return null;
+        }
+        try {
+            return new MulticastFeedPublisher(orderBooks,
+                ServerConfig.getString("multicast_group", "239.1.1.1"),
+                ServerConfig.getInt("multicast_port", 9500),
+                ServerConfig.getString("multicast_interface", ""),
+                ServerConfig.getInt("multicast_ttl", 1),
+                ServerConfig.getLong("multicast_interval_us", 500));
+        } catch (IOException e) {
+            System.err.println("Feed multicast non avviato: " + e.getMessage());
+            return null;
+        }
+    }
+
+    public MulticastFeedPublisher(OrderBookRegistry orderBooks, String groupAddress, int port,
+                                  String networkInterface, int ttl, long intervalMicros) throws IOException {
+        this.orderBooks = orderBooks;
+        this.symbols = orderBooks.getSymbols().toArray(new String[0]);
+        this.lastTradeSequence = new long[symbols.length];
+        this.lastTopOfBookSequence = new long[symbols.length];
+        for (int i = 0; i < symbols.length; i++) {
+            OrderBook orderBook = orderBooks.getOrderBook(symbols[i]);
+            lastTradeSequence[i] = orderBook.getTradeTape().getLastSequence();
+            // l'ultimo top già pubblicato viene comunque mandato al primo giro, come stato iniziale
+            lastTopOfBookSequence[i] = Math.max(0, orderBook.getTopOfBookTape().getLastSequence() - 1);
+        }
+
+        this.group = InetAddress.getByName(groupAddress);
+        this.port = port;
+        this.socket = new MulticastSocket();
+        this.socket.setTimeToLive(ttl);
+        if (!networkInterface.isEmpty()) {
+            this.socket.setNetworkInterface(NetworkInterface.getByName(networkInterface));
+        }
+        this.datagram = new DatagramPacket(packet.array(), 0, group, port);
+        this.intervalNanos = intervalMicros * 1000;
+        startPacket();
+
+        this.feedThread = new Thread(this, "multicast-feed");
+        this.feedThread.setDaemon(true);
+        this.feedThread.start();
+        System.out.println("Feed multicast su " + groupAddress + ":" + port);
+    }
+
+    @Override
+    public void run() {
+        while (running) {
+            try {
+                for (int i = 0; i < symbols.length; i++) {
+                    publishSymbol(i);
+                }
+                flush();
+            } catch (IOException e) {
+                System.err.println("Errore invio feed multicast: " + e.getMessage());
+                startPacket(); // il pacchetto è perso, i lettori vedranno il salto di sequenza
+            }
+            LockSupport.parkNanos(intervalNanos);
+        }
+        socket.close();
+    }
+
+    // l'ultima sequenza letta avanza a ogni messaggio messo nel pacchetto: se un invio fallisce a metà,
+    // i messaggi già nei pacchetti (inviati o persi) non vengono ripubblicati con sequenze nuove
+    private void publishSymbol(int i) throws IOException {
+        String symbol = symbols[i];
+        OrderBook orderBook = orderBooks.getOrderBook(symbol);
+
+        int count = orderBook.getTradeTape().readAfter(lastTradeSequence[i], tradeSequences, tradePrices, tradeSizes, tradeTimes);
+        for (int t = 0; t < count; t++) {
+            reserve(FeedProtocol.TRADE_SIZE);
+            FeedProtocol.putTrade(packet, symbol, tradeSequences[t], tradePrices[t], tradeSizes[t], tradeTimes[t]);
+            packetCount++;
+            lastTradeSequence[i] = tradeSequences[t];
+        }
+
+        count = orderBook.getTopOfBookTape().readAfter(lastTopOfBookSequence[i], tops);
+        for (int t = 0; t < count; t++) {
+            TopOfBook top = tops[t];
+            tops[t] = null;
+            reserve(FeedProtocol.TOP_OF_BOOK_SIZE);
+            FeedProtocol.putTopOfBook(packet, symbol, top.getSequence(), top.getBidPrice(), top.getBidSize(),
+                top.getAskPrice(), top.getAskSize(), top.getPrezzoMercato());
+            packetCount++;
+            lastTopOfBookSequence[i] = top.getSequence();
+        }
+    }
+
+    // se il messaggio non ci sta (o il contatore a 1 byte è pieno) invio il pacchetto corrente e ne inizio uno nuovo
+    private void reserve(int messageSize) throws IOException {
+        if (packet.remaining() < messageSize || packetCount == 255) {
+            flush();
+        }
+    }
+
+    private void flush() throws IOException {
+        if (packetCount == 0) {
+            return;
+        }
+        FeedProtocol.writeHeader(packet, packetFirstSequence, packetCount);
+        datagram.setLength(packet.position());
+        nextSequence += packetCount;
+        startPacket();
+        socket.send(datagram);
+        packetsSent++;
+    }
+
+    private void startPacket() {
+        packet.clear();
+        packet.position(FeedProtocol.HEADER_SIZE);
+        packetFirstSequence = nextSequence;
+        packetCount = 0;
+    }
+
+    public long getPacketsSent() { return packetsSent; }
+
+    public void stop() {
+        running = false;
+        LockSupport.unpark(feedThread);
+    }
+}
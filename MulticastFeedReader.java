@@ -0,0 +1,100 @@
+/*
+ * MulticastFeedReader.java
+ * cosa fa questa classe:
+ * - piccolo lettore del feed pubblico multicast del server (formato in shared.FeedProtocol)
+ * - si unisce al gruppo, decodifica trade e top of book e li stampa
+ * - controlla le sequenze: se il primo messaggio di un pacchetto non è quello atteso segnala quanti messaggi
+ *   sono stati persi (o se il pacchetto è vecchio/duplicato)
+ * - uso: java client.MulticastFeedReader [gruppo] [porta] [interfaccia]   (default 239.1.1.1 9500)
+ */
+
+package client;
+
+import shared.FeedProtocol;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.MulticastSocket;
+import java.net.NetworkInterface;
+import java.nio.ByteBuffer;
+
+public class MulticastFeedReader {
+    private long expectedSequence = -1; // -1 = nessun pacchetto ancora ricevuto
+    private long messagesReceived;
+    private long messagesLost;
+
+    public static void main(String[] args) throws IOException {
+        String groupAddress = (args.length > 0) ? args[0] : "239.1.1.1";
+        int port = (args.length > 1) ? Integer.parseInt(args[1]) : 9500;
+        NetworkInterface networkInterface = (args.length > 2) ? NetworkInterface.getByName(args[2]) : null;
+
+        InetAddress group = InetAddress.getByName(groupAddress);
+        MulticastFeedReader reader = new MulticastFeedReader();
+
+        try (MulticastSocket socket = new MulticastSocket(port)) {
+            socket.joinGroup(new InetSocketAddress(group, port), networkInterface);
+            System.out.println("In ascolto su " + groupAddress + ":" + port);
+
+            byte[] buffer = new byte[FeedProtocol.MAX_PACKET_SIZE];
+            DatagramPacket datagram = new DatagramPacket(buffer, buffer.length);
+            while (true) {
+                datagram.setLength(buffer.length);
+                socket.receive(datagram);
+                reader.onPacket(ByteBuffer.wrap(buffer, 0, datagram.getLength()));
+            }
+        }
+    }
+
+    public void onPacket(ByteBuffer packet) {
+        if (packet.remaining() < FeedProtocol.HEADER_SIZE
+            || packet.getShort() != FeedProtocol.MAGIC || packet.get() != FeedProtocol.VERSION) {
+            System.err.println("Pacchetto non valido, ignorato");
+            return;
+        }
+        int count = packet.get() & 0xFF;
+        long firstSequence = packet.getLong();
+
+        // controllo dei buchi di sequenza
+        if (expectedSequence != -1 && firstSequence != expectedSequence) {
+            if (firstSequence > expectedSequence) {
+                long lost = firstSequence - expectedSequence;
+                messagesLost += lost;
+                System.err.println("GAP: persi " + lost + " messaggi (sequenze " + expectedSequence + "-" + (firstSequence - 1) + ")");
+            } else {
+                System.err.println("Pacchetto vecchio o duplicato (sequenza " + firstSequence + "), ignorato");
+                return;
+            }
+        }
+        expectedSequence = firstSequence + count;
+        messagesReceived += count;
+
+        for (int i = 0; i < count; i++) {
+            byte type = packet.get();
+            String symbol = FeedProtocol.readSymbol(packet);
+            if (type == FeedProtocol.TRADE) {
+                long tradeSequence = packet.getLong();
+                int price = packet.getInt();
+                int size = packet.getInt();
+                long time = packet.getLong();
+                System.out.println("[" + (firstSequence + i) + "] TRADE " + symbol + " #" + tradeSequence
+                    + " " + size + "@" + price + " t=" + time);
+            } else if (type == FeedProtocol.TOP_OF_BOOK) {
+                long sequence = packet.getLong();
+                int bidPrice = packet.getInt();
+                long bidSize = packet.getLong();
+                int askPrice = packet.getInt();
+                long askSize = packet.getLong();
+                int prezzoMercato = packet.getInt();
+                System.out.println("[" + (firstSequence + i) + "] TOP " + symbol + " #" + sequence
+                    + " bid " + bidSize + "@" + bidPrice + " ask " + askSize + "@" + askPrice + " mercato " + prezzoMercato);
+            } else {
+                System.err.println("Tipo di messaggio sconosciuto: " + type + ", resto del pacchetto ignorato");
+                return;
+            }
+        }
+    }
+
+    public long getMessagesReceived() { return messagesReceived; }
+    public long getMessagesLost() { return messagesLost; }
+}
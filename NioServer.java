@@ -0,0 +1,359 @@
+/*
+ * NioServer.java
+ * cosa fa questa classe:
+ * - front end di rete non bloccante (network_mode=nio): il numero di thread non dipende dal numero di client,
+ *   quindi migliaia di sessioni quasi sempre inattive restano connesse senza occupare un thread ciascuna
+ * - il thread che chiama run() accetta le connessioni (ServerSocketChannel) e le distribuisce a giro sui
+ *   thread selector (nio_selector_threads, default 2)
+ * - ogni thread selector legge dai suoi canali in un ByteBuffer riusato, divide i byte in righe (una richiesta
+ *   JSON per riga) e passa ogni riga al ClientHandler della connessione
+ * - le richieste vengono eseguite su un pool di worker (nio_worker_threads) e non sul selector, perchè possono
+ *   aspettare il book; le richieste della stessa connessione restano in ordine (coda seriale per connessione)
+ * - un client può mandare più richieste senza aspettare le risposte (pipelining, con "requestId"): mentre il
+ *   worker le esegue il selector continua a leggere, e le risposte di richieste già in coda vengono scritte
+ *   tutte insieme dopo l'ultima
+ * - il primo byte della connessione sceglie il protocollo: OrderEntryProtocol.HELLO = frame binari con la
+ *   lunghezza davanti, altrimenti righe JSON
+ * - le scritture provano subito a scrivere sul canale; quello che non entra resta in coda e viene scritto
+ *   dal selector quando il canale torna scrivibile. Un client che non legge (più di nio_max_pending_bytes
+ *   in coda) viene disconnesso
+ */
+
+package server;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import shared.OrderEntryProtocol;
+
+public class NioServer {
+
+    private static final int READ_BUFFER_SIZE = 16 * 1024;
+    private static final int MAX_LINE_LENGTH = ServerConfig.getInt("nio_max_line_length", 64 * 1024);
+    private static final long MAX_PENDING_BYTES = ServerConfig.getLong("nio_max_pending_bytes", 4 * 1024 * 1024);
+
+    private final CROSSServer crossServer;
+    private final ServerSocketChannel serverChannel;
+    private final SelectorLoop[] loops;
+    private final ExecutorService workers;
+    private int nextLoop;
+
+    public NioServer(CROSSServer crossServer, int port, int selectorThreads, int workerThreads) throws IOException {
+        this.crossServer = crossServer;
+        this.serverChannel = ServerSocketChannel.open();
+        this.serverChannel.bind(new InetSocketAddress(port));
+
+        this.workers = Executors.newFixedThreadPool(workerThreads, runnable -> {
+            Thread thread = new Thread(runnable, "nio-worker");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.loops = new SelectorLoop[selectorThreads];
+        for (int i = 0; i < selectorThreads; i++) {
+            loops[i] = new SelectorLoop();
+            Thread thread = new Thread(loops[i], "nio-selector-" + i);
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    // ciclo di accept, blocca il thread chiamante
+    public void run() throws IOException {
+        while (true) {
+            SocketChannel channel = serverChannel.accept();
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+            System.out.println("Nuovo client connesso: " + channel.socket().getInetAddress());
+
+            SelectorLoop loop = loops[nextLoop];
+            nextLoop = (nextLoop + 1) % loops.length;
+            NioConnection connection = new NioConnection(channel, loop);
+            connection.handler = new ClientHandler(connection, crossServer);
+            loop.register(connection);
+        }
+    }
+
+// ========================================= THREAD SELECTOR ==========================
+
+    private final class SelectorLoop implements Runnable {
+        private final Selector selector;
+        private final ConcurrentLinkedQueue<NioConnection> registrations = new ConcurrentLinkedQueue<>();
+        // buffer di lettura riusato per tutte le connessioni di questo selector
+        private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+
+        SelectorLoop() throws IOException {
+            this.selector = Selector.open();
+        }
+
+        void register(NioConnection connection) {
+            registrations.add(connection);
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                try {
+                    selector.select();
+
+                    NioConnection connection;
+                    while ((connection = registrations.poll()) != null) {
+                        connection.key = connection.channel.register(selector, SelectionKey.OP_READ, connection);
+                    }
+
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        NioConnection selected = (NioConnection) key.attachment();
+                        try {
+                            if (key.isReadable()) {
+                                selected.onReadable(readBuffer);
+                            }
+                            if (key.isValid() && key.isWritable()) {
+                                selected.onWritable();
+                            }
+                        } catch (CancelledKeyException e) {
+                            // connessione chiusa nel frattempo
+                        } catch (IOException e) {
+                            selected.close();
+                        }
+                    }
+                } catch (IOException e) {
+                    System.err.println("Errore nel selector NIO: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+// ========================================= CONNESSIONE ==========================
+
+    final class NioConnection implements ClientConnection {
+        private final SocketChannel channel;
+        private final SelectorLoop loop;
+        private final InetAddress remoteAddress;
+        private volatile SelectionKey key;
+        private volatile boolean open = true;
+        ClientHandler handler;
+
+        // riga (o frame binario) in lettura, toccata solo dal thread selector
+        private byte[] line = new byte[256];
+        private int lineLength;
+        private boolean protocolChosen;
+        private boolean binary;
+
+        // scritture non ancora completate
+        private final Object writeLock = new Object();
+        private final ArrayDeque<ByteBuffer> pendingWrites = new ArrayDeque<>();
+        private long pendingBytes;
+
+        // richieste in attesa del worker, eseguite una alla volta in ordine di arrivo
+        private final ArrayDeque<Runnable> inbox = new ArrayDeque<>();
+        private boolean scheduled;
+        // true mentre il worker esegue una richiesta seguita da altre già in coda (le risposte si scrivono insieme)
+        private boolean moreQueued;
+
+        NioConnection(SocketChannel channel, SelectorLoop loop) {
+            this.channel = channel;
+            this.loop = loop;
+            this.remoteAddress = channel.socket().getInetAddress();
+        }
+
+        void onReadable(ByteBuffer buffer) throws IOException {
+            buffer.clear();
+            int read = channel.read(buffer);
+            if (read < 0) {
+                close(); // il client ha chiuso
+                return;
+            }
+            buffer.flip();
+            if (!protocolChosen && buffer.hasRemaining()) {
+                protocolChosen = true;
+                if (buffer.get(buffer.position()) == OrderEntryProtocol.HELLO) {
+                    buffer.get();
+                    binary = true;
+                    handler.useBinaryProtocol();
+                }
+            }
+            if (binary) {
+                readFrames(buffer);
+                return;
+            }
+            while (buffer.hasRemaining()) {
+                byte b = buffer.get();
+                if (b == '\n') {
+                    int length = (lineLength > 0 && line[lineLength - 1] == '\r') ? lineLength - 1 : lineLength;
+                    String request = new String(line, 0, length, StandardCharsets.UTF_8);
+                    lineLength = 0;
+                    if (!request.isEmpty()) {
+                        submit(() -> handler.handleLine(request, moreQueued));
+                    }
+                } else {
+                    if (lineLength == line.length) {
+                        if (line.length >= MAX_LINE_LENGTH) {
+                            System.err.println("Richiesta troppo lunga da " + remoteAddress + ", chiudo la connessione");
+                            close();
+                            return;
+                        }
+                        byte[] bigger = new byte[Math.min(line.length * 2, MAX_LINE_LENGTH)];
+                        System.arraycopy(line, 0, bigger, 0, lineLength);
+                        line = bigger;
+                    }
+                    line[lineLength++] = b;
+                }
+            }
+        }
+
+        // frame binari: 2 byte di lunghezza + payload. Il payload viene copiato perchè lo esegue un worker
+        private void readFrames(ByteBuffer buffer) {
+            while (buffer.hasRemaining()) {
+                if (lineLength < OrderEntryProtocol.LENGTH_SIZE) {
+                    line[lineLength++] = buffer.get(); // prima la lunghezza
+                    continue;
+                }
+                int frameSize = OrderEntryProtocol.LENGTH_SIZE + (((line[0] & 0xFF) << 8) | (line[1] & 0xFF));
+                if (line.length < frameSize) {
+                    line = Arrays.copyOf(line, frameSize);
+                }
+                int chunk = Math.min(frameSize - lineLength, buffer.remaining());
+                buffer.get(line, lineLength, chunk);
+                lineLength += chunk;
+
+                if (lineLength == frameSize) {
+                    lineLength = 0;
+                    if (frameSize > OrderEntryProtocol.LENGTH_SIZE) {
+                        ByteBuffer payload = ByteBuffer.wrap(Arrays.copyOfRange(line, OrderEntryProtocol.LENGTH_SIZE, frameSize));
+                        submit(() -> handler.handleBinary(payload, moreQueued));
+                    }
+                }
+            }
+        }
+
+        void onWritable() throws IOException {
+            synchronized (writeLock) {
+                while (!pendingWrites.isEmpty()) {
+                    ByteBuffer buffer = pendingWrites.peek();
+                    int before = buffer.remaining();
+                    channel.write(buffer);
+                    pendingBytes -= before - buffer.remaining();
+                    if (buffer.hasRemaining()) {
+                        return; // il socket è di nuovo pieno, riprovo al prossimo OP_WRITE
+                    }
+                    pendingWrites.poll();
+                }
+                key.interestOps(SelectionKey.OP_READ);
+            }
+        }
+
+        private void submit(Runnable task) {
+            synchronized (inbox) {
+                inbox.add(task);
+                if (scheduled) {
+                    return; // c'è già un worker che sta svuotando la coda di questa connessione
+                }
+                scheduled = true;
+            }
+            workers.execute(this::drainInbox);
+        }
+
+        private void drainInbox() {
+            while (true) {
+                Runnable task;
+                synchronized (inbox) {
+                    task = inbox.poll();
+                    if (task == null) {
+                        scheduled = false;
+                        return;
+                    }
+                    moreQueued = !inbox.isEmpty();
+                }
+                try {
+                    task.run();
+                } catch (Exception e) {
+                    System.err.println("Errore nella richiesta di " + remoteAddress + ": " + e.getMessage());
+                }
+            }
+        }
+
+        @Override
+        public InetAddress getRemoteAddress() {
+            return remoteAddress;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return open;
+        }
+
+        @Override
+        public boolean write(String lines) {
+            return write(ByteBuffer.wrap(lines.getBytes(StandardCharsets.UTF_8)));
+        }
+
+        @Override
+        public boolean write(ByteBuffer buffer) {
+            if (!open) {
+                return false;
+            }
+            try {
+                synchronized (writeLock) {
+                    if (pendingWrites.isEmpty()) {
+                        channel.write(buffer); // caso normale: entra tutto subito nel buffer del socket
+                    }
+                    if (buffer.hasRemaining()) {
+                        // copia: il chiamante può riusare il suo buffer
+                        ByteBuffer copy = ByteBuffer.allocate(buffer.remaining());
+                        copy.put(buffer).flip();
+                        pendingWrites.add(copy);
+                        pendingBytes += copy.remaining();
+                        if (pendingBytes > MAX_PENDING_BYTES) {
+                            System.err.println("Client " + remoteAddress + " non legge, chiudo la connessione");
+                            close();
+                            return false;
+                        }
+                        key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                        loop.selector.wakeup();
+                    }
+                }
+                return true;
+            } catch (IOException | CancelledKeyException e) {
+                close();
+                return false;
+            }
+        }
+
+        @Override
+        public void close() {
+            synchronized (this) {
+                if (!open) {
+                    return;
+                }
+                open = false;
+            }
+            if (key != null) {
+                key.cancel();
+            }
+            try {
+                channel.close();
+                System.out.println("Connessione chiusa: " + remoteAddress);
+            } catch (IOException e) {
+                System.err.println("Errore chiusura canale: " + e.getMessage());
+            }
+            // logout e pulizia dopo le richieste già in coda
+            submit(handler::onDisconnect);
+        }
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ * OpenOrder.java
+ * cosa fa questa classe:
+ * - fotografia di un ordine limit o stop ancora nel book, per la risposta di listOpenOrders
+ * - la crea l'OrderBook (dal thread che possiede il book) copiando i valori: chi la legge dopo non tocca
+ *   l'ordine vero, che intanto può essere eseguito o cancellato
+ */
+
+package server;
+
+import shared.*;
+import org.json.JSONObject;
+
+public final class OpenOrder {
+    private final String symbol;
+    private final long orderId;
+    private final OrderSide side;
+    private final String orderType; // "limit" o "stop"
+    private final int size;
+    private final int remainingSize;
+    private final int price;        // prezzo limite o di stop
+
+    OpenOrder(String symbol, Order order) {
+        this.symbol = symbol;
+        this.orderId = order.getOrderId();
+        this.side = order.getSide();
+        this.size = order.getSize();
+        this.remainingSize = order.getRemainingSize();
+        if (order.isStopOrder()) {
+            this.orderType = "stop";
+            this.price = ((StopOrder) order).getStopPrice();
+        } else {
+            this.orderType = "limit";
+            this.price = ((LimitOrder) order).getLimitPrice();
+        }
+    }
+
+    public String getSymbol() { return symbol; }
+    public long getOrderId() { return orderId; }
+    public OrderSide getSide() { return side; }
+    public String getOrderType() { return orderType; }
+    public int getSize() { return size; }
+    public int getRemainingSize() { return remainingSize; }
+    public int getPrice() { return price; }
+
+    public JSONObject toJSON() {
+        JSONObject json = new JSONObject();
+        json.put("symbol", symbol);
+        json.put("orderId", orderId);
+        json.put("type", side.toString().toLowerCase());
+        json.put("orderType", orderType);
+        json.put("size", size);
+        json.put("remainingSize", remainingSize);
+        json.put("price", price);
+        return json;
+    }
+}
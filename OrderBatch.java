@@ -0,0 +1,76 @@
+/*
+ * OrderBatch.java
+ * cosa fa questa classe:
+ * - una lista di inserimenti e/o cancellazioni di un utente da applicare insieme (insertOrders, cancelOrders)
+ * - il ClientHandler aggiunge gli elementi, CROSSServer crea gli ordini e passa a ogni book i suoi elementi,
+ *   che vengono applicati tutti in un solo turno (un solo lock del book / un solo comando dell'engine)
+ * - ogni elemento ha il suo risultato: orderId (-1 = errore) per gli inserimenti, 100/101 per le cancellazioni
+ */
+
+package server;
+
+import shared.*;
+import java.util.ArrayList;
+import java.util.List;
+
+public class OrderBatch {
+    public static final int LIMIT = 1;
+    public static final int MARKET = 2;
+    public static final int STOP = 3;
+    public static final int CANCEL = 4;
+
+    private final List<Item> items = new ArrayList<>();
+
+    public Item addLimit(String symbol, OrderSide side, int size, int price, ExecutionReport report) {
+        return add(new Item(LIMIT, symbol, side, size, price, -1, report));
+    }
+
+    public Item addMarket(String symbol, OrderSide side, int size, ExecutionReport report) {
+        return add(new Item(MARKET, symbol, side, size, 0, -1, report));
+    }
+
+    public Item addStop(String symbol, OrderSide side, int size, int stopPrice, ExecutionReport report) {
+        return add(new Item(STOP, symbol, side, size, stopPrice, -1, report));
+    }
+
+    public Item addCancel(String symbol, long orderId) {
+        return add(new Item(CANCEL, symbol, null, 0, 0, orderId, null));
+    }
+
+    private Item add(Item item) {
+        items.add(item);
+        return item;
+    }
+
+    public List<Item> getItems() { return items; }
+
+    public int size() { return items.size(); }
+
+    public static final class Item {
+        final int type;
+        final String symbol;
+        final OrderSide side;
+        final int size;
+        final int price;   // limite o stop
+        long orderId;      // per CANCEL l'ordine da cancellare, per gli inserimenti assegnato da CROSSServer
+        final ExecutionReport report;
+        Order order;       // creato da CROSSServer prima di passare l'elemento al book
+        long result;       // inserimenti: orderId o -1; cancellazioni: 100 o 101
+
+        private Item(int type, String symbol, OrderSide side, int size, int price, long orderId, ExecutionReport report) {
+            this.type = type;
+            this.symbol = symbol;
+            this.side = side;
+            this.size = size;
+            this.price = price;
+            this.orderId = orderId;
+            this.report = report;
+            this.result = (type == CANCEL) ? 101 : -1;
+        }
+
+        public int getType() { return type; }
+        public String getSymbol() { return symbol; }
+        public long getResult() { return result; }
+        public ExecutionReport getReport() { return report; }
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * OrderBookRegistry.java
+ * cosa fa questa classe:
+ * - tiene un OrderBook per ogni strumento trattato, indicizzato per simbolo (config: symbols=BTCUSD,ETHUSD,...)
+ * - per ogni strumento crea anche il suo PersistenceManager (file separati) e il punto di ingresso degli ordini
+ * - con engine_mode=single_writer ogni book ha il suo MatchingEngine su un thread dedicato ("matching-engine-SIMBOLO"),
+ *   quindi strumenti diversi lavorano in parallelo su core diversi
+ * - la mappa viene costruita all'avvio e non cambia più: le letture dai thread dei client non hanno bisogno di lock
+ */
+
+package server;
+
+import java.util.*;
+
+public class OrderBookRegistry {
+
+    private static class Instrument {
+        final OrderBook orderBook;
+        final OrderEntry orderEntry; // il book stesso (locked) o il MatchingEngine (single_writer)
+        final PersistenceManager persistenceManager;
+
+        Instrument(OrderBook orderBook, OrderEntry orderEntry, PersistenceManager persistenceManager) {
+            this.orderBook = orderBook;
+            this.orderEntry = orderEntry;
+            this.persistenceManager = persistenceManager;
+        }
+    }
+
+    private final Map<String, Instrument> instruments;
+    private final String defaultSymbol;
+
+    public OrderBookRegistry(UserManager userManager, NotificationService notificationService) {
+        String[] symbols = ServerConfig.getString("symbols", "BTCUSD").split(",");
+        Map<String, Instrument> map = new LinkedHashMap<>();
+
+        for (String rawSymbol : symbols) {
+            String symbol = rawSymbol.trim().toUpperCase();
+            if (symbol.isEmpty() || map.containsKey(symbol)) {
+                continue;
+            }
+            // il primo simbolo è quello di default: usa i file di persistenza storici
+            boolean isDefault = map.isEmpty();
+            PersistenceManager persistenceManager = new PersistenceManager(userManager, symbol, isDefault);
+            OrderBook orderBook = new OrderBook(symbol, persistenceManager, notificationService);
+            map.put(symbol, new Instrument(orderBook, createOrderEntry(orderBook), persistenceManager));
+        }
+
+        this.instruments = Collections.unmodifiableMap(map);
+        this.defaultSymbol = map.keySet().iterator().next();
+        System.out.println("Strumenti attivi: " + instruments.keySet() + " (default " + defaultSymbol + ")");
+    }
+
+    // engine_mode=locked (default): i thread dei client entrano nel book prendendo il suo lock (ReentrantLock)
+    // engine_mode=single_writer: un thread dedicato per book, i client gli passano i comandi
+    private static OrderEntry createOrderEntry(OrderBook orderBook) {
+        String mode = ServerConfig.getString("engine_mode", "locked");
+        if (!mode.equalsIgnoreCase("single_writer")) {
+            return orderBook;
+        }
+        int ringSize = ServerConfig.getInt("engine_ring_size", 1024);
+        WaitStrategy waitStrategy = WaitStrategy.fromConfig(ServerConfig.getString("engine_wait_strategy", "park"));
+        System.out.println("MatchingEngine " + orderBook.getSymbol() + ": single writer, ring " + ringSize + ", attesa " + waitStrategy);
+        return new MatchingEngine(orderBook, ringSize, waitStrategy, "matching-engine-" + orderBook.getSymbol());
+    }
+
+// ============================================== ACCESSO PER SIMBOLO ==========================
+
+    // null se il simbolo non è trattato
+    public OrderEntry getOrderEntry(String symbol) {
+        Instrument instrument = instruments.get(symbol);
+        return (instrument == null) ? null : instrument.orderEntry;
+    }
+
+    public OrderBook getOrderBook(String symbol) {
+        Instrument instrument = instruments.get(symbol);
+        return (instrument == null) ? null : instrument.orderBook;
+    }
+
+    public PersistenceManager getPersistenceManager(String symbol) {
+        Instrument instrument = instruments.get(symbol);
+        return (instrument == null) ? null : instrument.persistenceManager;
+    }
+
+    public boolean hasSymbol(String symbol) {
+        return instruments.containsKey(symbol);
+    }
+
+    public String getDefaultSymbol() { return defaultSymbol; }
+
+    public Set<String> getSymbols() { return instruments.keySet(); }
+
+    public void shutdown() {
+        for (Instrument instrument : instruments.values()) {
+            if (instrument.orderEntry instanceof MatchingEngine) {
+                ((MatchingEngine) instrument.orderEntry).stop();
+            }
+            instrument.persistenceManager.stop();
+        }
+    }
+}
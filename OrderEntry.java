@@ -0,0 +1,47 @@
+/*
+ * OrderEntry.java
+ * cosa fa questa interfaccia:
+ * - raccoglie le operazioni sugli ordini che CROSSServer chiama sul book
+ * - implementata da OrderBook (accesso diretto con lock) e da MatchingEngine (un solo thread possiede il book)
+ * - così CROSSServer non deve sapere quale delle due modalità è attiva (config engine_mode)
+ */
+
+package server;
+
+import shared.*;
+import java.util.List;
+
+public interface OrderEntry {
+
+    // report (può essere null): se presente viene riempito con i fill immediati dell'ordine
+    boolean addLimitOrder(LimitOrder order, ExecutionReport report);
+
+    boolean addStopOrder(StopOrder order, ExecutionReport report);
+
+    boolean executeMarketOrder(MarketOrder marketOrder, ExecutionReport report);
+
+    default boolean addLimitOrder(LimitOrder order) {
+        return addLimitOrder(order, null);
+    }
+
+    default boolean addStopOrder(StopOrder order) {
+        return addStopOrder(order, null);
+    }
+
+    default boolean executeMarketOrder(MarketOrder marketOrder) {
+        return executeMarketOrder(marketOrder, null);
+    }
+
+    // 100 = OK, 101 = ordine inesistente / di un altro utente / già finalizzato
+    int cancelOrder(long orderId, String username);
+
+    // applica in un solo turno sul book gli elementi di un OrderBatch (tutti di questo book, ordini già creati)
+    // e scrive in ogni elemento il suo risultato
+    void applyBatch(List<OrderBatch.Item> items, String username);
+
+    // aggiunge a out gli ordini limit e stop ancora aperti dell'utente su questo book
+    void listOpenOrders(String username, List<OpenOrder> out);
+
+    // cancella tutti gli ordini aperti dell'utente su questo book, ritorna quanti ne ha cancellati
+    int cancelAllOrders(String username);
+}
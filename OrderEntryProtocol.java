@@ -0,0 +1,124 @@
+/*
+ * OrderEntryProtocol.java
+ * cosa fa questa classe:
+ * - protocollo binario TCP per inserimento e cancellazione ordini, alternativo alle righe JSON, condiviso
+ *   da server e client (big endian, come FeedProtocol)
+ * - si sceglie alla connessione: se il primo byte mandato dal client è HELLO la connessione è binaria,
+ *   altrimenti è JSON (una richiesta JSON inizia sempre con '{')
+ * - ogni messaggio è un frame: lunghezza del payload (2 byte, senza segno) + payload; il payload inizia con il tipo (1)
+ * - richieste (client -> server):
+ *   INSERT_LIMIT  requestId (8), lato (1: 0 bid, 1 ask), quantità (4), prezzo (4), simbolo (8), flag (1)
+ *   INSERT_MARKET requestId (8), lato (1), quantità (4), simbolo (8), flag (1)
+ *   INSERT_STOP   requestId (8), lato (1), quantità (4), prezzo di stop (4), simbolo (8), flag (1)
+ *   CANCEL        requestId (8), orderId (8), simbolo (8)
+ *   JSON_REQUEST  richiesta JSON in UTF-8 (login, logout, storico e tutte le altre operazioni)
+ *   flag: bit 0 = vuole l'execution report con i fill immediati. Simbolo tutto spazi = simbolo di default
+ * - risposte (server -> client):
+ *   ORDER_ACK        requestId (8), orderId (8, -1 = errore)
+ *   EXECUTION_REPORT requestId (8), orderId (8), quantità rimasta (4), numero fill (2),
+ *                    per ogni fill: prezzo (4), quantità (4), orderId della controparte (8); al massimo
+ *                    MAX_REPORT_FILLS fill
+ *   CANCEL_ACK       requestId (8), orderId (8), esito (2: 100 ok, 101 errore)
+ *   JSON_RESPONSE    risposta JSON in UTF-8 (anche i messaggi market data delle sottoscrizioni)
+ * - frame non valido o errore nel server: se il requestId si è potuto leggere la risposta è ORDER_ACK con
+ *   orderId -1 / CANCEL_ACK con esito 101, altrimenti un JSON_RESPONSE con "errorMessage"
+ */
+
+package shared;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+public final class OrderEntryProtocol {
+    public static final byte HELLO = (byte) 0xB1;
+
+    public static final int LENGTH_SIZE = 2;
+    public static final int MAX_PAYLOAD_SIZE = 0xFFFF;
+
+    // richieste
+    public static final byte INSERT_LIMIT = 1;
+    public static final byte INSERT_MARKET = 2;
+    public static final byte INSERT_STOP = 3;
+    public static final byte CANCEL = 4;
+    public static final byte JSON_REQUEST = 10;
+
+    // risposte
+    public static final byte ORDER_ACK = (byte) 0x81;
+    public static final byte EXECUTION_REPORT = (byte) 0x82;
+    public static final byte CANCEL_ACK = (byte) 0x83;
+    public static final byte JSON_RESPONSE = (byte) 0x8A;
+
+    public static final byte SIDE_BID = 0;
+    public static final byte SIDE_ASK = 1;
+    public static final byte FLAG_EXECUTION_REPORT = 1;
+
+    public static final int FILL_SIZE = 4 + 4 + 8;
+    public static final int EXECUTION_REPORT_HEADER_SIZE = 1 + 8 + 8 + 4 + 2;
+    // un execution report sta in un frame: con più fill la lista viene troncata (la quantità rimasta resta giusta)
+    public static final int MAX_REPORT_FILLS = (MAX_PAYLOAD_SIZE - EXECUTION_REPORT_HEADER_SIZE) / FILL_SIZE;
+
+    private OrderEntryProtocol() {}
+
+    // apre un frame: lascia lo spazio per la lunghezza e scrive il tipo. Ritorna la posizione del frame
+    public static int beginFrame(ByteBuffer buffer, byte type) {
+        int start = buffer.position();
+        buffer.position(start + LENGTH_SIZE);
+        buffer.put(type);
+        return start;
+    }
+
+    // chiude il frame aperto da beginFrame scrivendo la lunghezza del payload
+    public static void endFrame(ByteBuffer buffer, int start) {
+        buffer.putShort(start, (short) (buffer.position() - start - LENGTH_SIZE));
+    }
+
+    public static void putOrderAck(ByteBuffer buffer, long requestId, long orderId) {
+        int start = beginFrame(buffer, ORDER_ACK);
+        buffer.putLong(requestId);
+        buffer.putLong(orderId);
+        endFrame(buffer, start);
+    }
+
+    public static void putCancelAck(ByteBuffer buffer, long requestId, long orderId, int result) {
+        int start = beginFrame(buffer, CANCEL_ACK);
+        buffer.putLong(requestId);
+        buffer.putLong(orderId);
+        buffer.putShort((short) result);
+        endFrame(buffer, start);
+    }
+
+    // json già codificato in UTF-8, al massimo MAX_PAYLOAD_SIZE - 1 byte
+    public static void putJson(ByteBuffer buffer, byte type, byte[] json) {
+        int start = beginFrame(buffer, type);
+        buffer.put(json);
+        endFrame(buffer, start);
+    }
+
+    public static String readJson(ByteBuffer payload) {
+        byte[] bytes = new byte[payload.remaining()];
+        payload.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    public static OrderSide readSide(ByteBuffer payload) {
+        byte side = payload.get();
+        if (side == SIDE_BID) return OrderSide.BID;
+        if (side == SIDE_ASK) return OrderSide.ASK;
+        throw new IllegalArgumentException("lato non valido: " + side);
+    }
+
+    public static byte sideCode(OrderSide side) {
+        return (side == OrderSide.BID) ? SIDE_BID : SIDE_ASK;
+    }
+
+    // stesso formato dei simboli del feed multicast
+    public static void putSymbol(ByteBuffer buffer, String symbol) {
+        FeedProtocol.putSymbol(buffer, symbol == null ? "" : symbol);
+    }
+
+    // null se il simbolo è vuoto (= simbolo di default del server)
+    public static String readSymbol(ByteBuffer payload) {
+        String symbol = FeedProtocol.readSymbol(payload);
+        return symbol.isEmpty() ? null : symbol;
+    }
+}
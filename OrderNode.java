@@ -0,0 +1,42 @@
+/*
+ * OrderNode.java
+ * cosa fa questa classe:
+ * - nodo della coda FIFO di un PriceLevel: tiene l'ordine e i puntatori al precedente e al successivo
+ * - è anche l'handle che l'orderbook salva nell'indice per orderId, così un ordine si toglie in O(1)
+ *   dal suo livello senza cercarlo (cancellazione, esecuzione totale)
+ * - userPrev/userNext collegano gli ordini aperti dello stesso utente (indice per utente dell'orderbook,
+ *   usato da listOpenOrders e cancelAllOrders)
+ */
+
+package server;
+
+import shared.*;
+
+public class OrderNode<T extends Order> {
+    private final T order;
+    PriceLevel<T> level; // null quando il nodo non è più in nessun livello
+    OrderNode<T> prev;
+    OrderNode<T> next;
+    OrderNode<? extends Order> userPrev; // lista degli ordini dell'utente, gestita dall'OrderBook
+    OrderNode<? extends Order> userNext;
+
+    OrderNode(T order, PriceLevel<T> level) {
+        this.order = order;
+        this.level = level;
+    }
+
+    public T getOrder() { return order; }
+    public PriceLevel<T> getLevel() { return level; }
+    public OrderNode<T> getNext() { return next; }
+
+    public boolean isLinked() { return level != null; }
+
+    // toglie il nodo dal suo livello, ritorna il livello da cui è stato tolto (null se non era collegato)
+    public PriceLevel<T> unlink() {
+        PriceLevel<T> oldLevel = level;
+        if (oldLevel != null) {
+            oldLevel.unlink(this);
+        }
+        return oldLevel;
+    }
+}
@@ -0,0 +1,188 @@
+/*
+ * PriceLadderBookSide.java
+ * cosa fa questa classe:
+ * - implementazione di BookSide a "scala prezzi": i livelli stanno in un array indicizzato da (prezzo - basePrice)
+ * - i prezzi sono tick interi dentro una banda nota (config: price_ladder_base_price, price_ladder_levels)
+ * - tiene un cursore sull'indice del prezzo migliore, quindi best bid/ask si leggono in O(1) senza boxing
+ * - una bitmap dei livelli con ordini (un bit per prezzo) più il loro numero: il prossimo livello si trova
+ *   saltando 64 prezzi vuoti alla volta (Long.numberOfTrailingZeros / numberOfLeadingZeros) e un lato che si
+ *   svuota si riconosce in O(1), senza scorrere l'array
+ * - i livelli vengono creati la prima volta che servono e poi riusati anche quando si svuotano
+ * - i prezzi fuori banda non sono accettati (accepts = false): l'ordine viene rifiutato dall'orderbook
+ */
+
+package server;
+
+import shared.*;
+
+public class PriceLadderBookSide<T extends Order> implements BookSide<T> {
+    private final PriceLevel<T>[] levels;
+    private final int basePrice;
+    private final boolean descending; // true per i BID: il prezzo migliore è il più alto
+    private int bestIndex = -1;       // -1 se il lato è vuoto
+    private final long[] occupied;    // bit i = livello i con ordini (aggiornata da getOrCreateLevel/removeLevel)
+    private int occupiedCount;        // quanti bit sono accesi
+    private long totalVolume;         // somma delle quantità residue di tutti i livelli
+    private long version;             // numero di modifiche, vedi BookSide.version
+
+    @SuppressWarnings("unchecked")
+    public PriceLadderBookSide(int basePrice, int levelCount, boolean descending) {
+        this.levels = (PriceLevel<T>[]) new PriceLevel[levelCount];
+        this.occupied = new long[(levelCount + 63) >>> 6];
+        this.basePrice = basePrice;
+        this.descending = descending;
+    }
+
+    @Override
+    public PriceLevel<T> getLevel(int price) {
+        int index = price - basePrice;
+        if (index < 0 || index >= levels.length) return null;
+        return levels[index];
+    }
+
+    @Override
+    public PriceLevel<T> getOrCreateLevel(int price) {
+        int index = price - basePrice;
+        if (index < 0 || index >= levels.length) return null; // fuori banda
+
+        PriceLevel<T> level = levels[index];
+        if (level == null) {
+            level = new PriceLevel<>(price, this);
+            levels[index] = level;
+        }
+        markOccupied(index);
+        // il chiamante aggiunge subito un ordine, quindi sposto il cursore se il prezzo è migliore
+        if (bestIndex == -1 || isBetter(index, bestIndex)) {
+            bestIndex = index;
+        }
+        return level;
+    }
+
+    @Override
+    public void removeLevel(int price) {
+        // il livello resta nell'array per essere riusato: spengo il suo bit e sposto il cursore se serve
+        int index = price - basePrice;
+        if (index < 0 || index >= levels.length) return;
+        if (levels[index] == null || levels[index].isEmpty()) {
+            clearOccupied(index);
+        }
+        if (index == bestIndex) {
+            advanceBest();
+        }
+    }
+
+    @Override
+    public PriceLevel<T> bestLevel() {
+        advanceBest();
+        return (bestIndex == -1) ? null : levels[bestIndex];
+    }
+
+    @Override
+    public PriceLevel<T> nextLevel(PriceLevel<T> level) {
+        int step = descending ? -1 : 1;
+        for (int i = nextOccupied(level.getPrice() - basePrice + step); i != -1; i = nextOccupied(i + step)) {
+            PriceLevel<T> candidate = levels[i];
+            if (!candidate.isEmpty()) {
+                return candidate;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public boolean accepts(int price) {
+        int index = price - basePrice;
+        return index >= 0 && index < levels.length;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return bestLevel() == null;
+    }
+
+    // sposta il cursore verso prezzi peggiori fino al primo livello con ordini (O(1) se il lato è vuoto)
+    private void advanceBest() {
+        if (bestIndex == -1) return;
+        if (occupiedCount == 0) {
+            bestIndex = -1;
+            return;
+        }
+
+        int step = descending ? -1 : 1;
+        int i = nextOccupied(bestIndex);
+        while (i != -1 && levels[i].isEmpty()) {
+            clearOccupied(i); // svuotato senza removeLevel: lo tolgo ora
+            i = (occupiedCount == 0) ? -1 : nextOccupied(i + step);
+        }
+        bestIndex = i;
+    }
+
+// ---- bitmap dei livelli occupati ----
+
+    private void markOccupied(int index) {
+        long bit = 1L << index; // lo shift usa solo i 6 bit bassi
+        int word = index >>> 6;
+        if ((occupied[word] & bit) == 0) {
+            occupied[word] |= bit;
+            occupiedCount++;
+        }
+    }
+
+    private void clearOccupied(int index) {
+        long bit = 1L << index;
+        int word = index >>> 6;
+        if ((occupied[word] & bit) != 0) {
+            occupied[word] &= ~bit;
+            occupiedCount--;
+        }
+    }
+
+    // primo indice occupato da from (compreso) andando verso prezzi peggiori, -1 se non ce ne sono
+    private int nextOccupied(int from) {
+        return descending ? previousSetBit(from) : nextSetBit(from);
+    }
+
+    private int nextSetBit(int from) {
+        if (from < 0) from = 0;
+        if (from >= levels.length) return -1;
+        int word = from >>> 6;
+        long bits = occupied[word] & (-1L << from);
+        while (bits == 0) {
+            if (++word == occupied.length) return -1;
+            bits = occupied[word];
+        }
+        return (word << 6) + Long.numberOfTrailingZeros(bits);
+    }
+
+    private int previousSetBit(int from) {
+        if (from < 0) return -1;
+        if (from >= levels.length) from = levels.length - 1;
+        int word = from >>> 6;
+        long bits = occupied[word] & (-1L >>> (63 - (from & 63)));
+        while (bits == 0) {
+            if (--word < 0) return -1;
+            bits = occupied[word];
+        }
+        return (word << 6) + 63 - Long.numberOfLeadingZeros(bits);
+    }
+
+    private boolean isBetter(int index, int otherIndex) {
+        return descending ? index > otherIndex : index < otherIndex;
+    }
+
+    @Override
+    public long totalVolume() {
+        return totalVolume;
+    }
+
+    @Override
+    public void adjustVolume(long delta) {
+        totalVolume += delta;
+        version++;
+    }
+
+    @Override
+    public long version() {
+        return version;
+    }
+}
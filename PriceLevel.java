@@ -0,0 +1,87 @@
+/*
+ * PriceLevel.java
+ * cosa fa questa classe:
+ * - rappresenta un singolo livello di prezzo di un lato del book (bid, ask o stop)
+ * - tiene gli ordini a quel prezzo in una coda doppiamente collegata (time priority): testa = ordine più vecchio
+ * - aggiunta in coda e rimozione di un nodo qualsiasi sono O(1), senza spostare altri ordini
+ * - tiene in cache numero di ordini e quantità residua totale, così le query di profondità non sommano gli ordini
+ * - ogni variazione della quantità residua viene riportata anche al lato (BookSide.adjustVolume)
+ * - viene creato una sola volta dal BookSide e riusato, così toccare un livello non alloca
+ */
+
+package server;
+
+import shared.*;
+
+public class PriceLevel<T extends Order> {
+    private final int price;
+    private final BookSide<T> side; // lato a cui appartiene, per il totale del lato
+    private OrderNode<T> head;
+    private OrderNode<T> tail;
+    private int orderCount;
+    private long totalRemaining; // somma delle remainingSize degli ordini nel livello
+
+    PriceLevel(int price, BookSide<T> side) {
+        this.price = price;
+        this.side = side;
+    }
+
+    public int getPrice() { return price; }
+
+    public boolean isEmpty() { return orderCount == 0; }
+
+    public int getOrderCount() { return orderCount; }
+
+    public long getTotalRemaining() { return totalRemaining; }
+
+    public OrderNode<T> head() { return head; }
+
+    // primo ordine arrivato (time priority), null se il livello è vuoto
+    public T first() {
+        return (head == null) ? null : head.getOrder();
+    }
+
+    // aggiunge l'ordine in coda e ritorna il nodo da usare come handle
+    public OrderNode<T> append(T order) {
+        OrderNode<T> node = new OrderNode<>(order, this);
+        node.prev = tail;
+        if (tail == null) {
+            head = node;
+        } else {
+            tail.next = node;
+        }
+        tail = node;
+
+        orderCount++;
+        totalRemaining += order.getRemainingSize();
+        side.adjustVolume(order.getRemainingSize());
+        return node;
+    }
+
+    // da chiamare quando un ordine del livello viene eseguito in parte (la remainingSize è già aggiornata)
+    public void reduceRemaining(int executedSize) {
+        totalRemaining -= executedSize;
+        side.adjustVolume(-executedSize);
+    }
+
+    void unlink(OrderNode<T> node) {
+        if (node.prev == null) {
+            head = node.next;
+        } else {
+            node.prev.next = node.next;
+        }
+        if (node.next == null) {
+            tail = node.prev;
+        } else {
+            node.next.prev = node.prev;
+        }
+
+        orderCount--;
+        totalRemaining -= node.getOrder().getRemainingSize();
+        side.adjustVolume(-node.getOrder().getRemainingSize());
+
+        node.prev = null;
+        node.next = null;
+        node.level = null;
+    }
+}
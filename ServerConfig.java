@@ -0,0 +1,84 @@
+/*
+ * ServerConfig.java
+ * cosa fa questa classe:
+ * - legge le coppie chiave=valore dal file config_server.txt
+ * - fornisce metodi di comodo per leggere interi, long, booleani e stringhe con un valore di default
+ * - usata dalle parti del server che non hanno già una propria lettura del config (orderbook, engine, ...)
+ */
+
+package server;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+
+public final class ServerConfig {
+
+    private static final String CONFIG_FILE = "config_server.txt";
+
+    private ServerConfig() {}
+
+    public static String getString(String key, String defaultValue) {
+        String value = readConfigValue(key);
+        return (value != null) ? value : defaultValue;
+    }
+
+    public static int getInt(String key, int defaultValue) {
+        try {
+            String value = readConfigValue(key);
+            if (value != null) {
+                return Integer.parseInt(value);
+            }
+        } catch (NumberFormatException e) {
+            System.err.println("Errore lettura " + key + " da config: " + e.getMessage());
+        }
+        return defaultValue;
+    }
+
+    public static long getLong(String key, long defaultValue) {
+        try {
+            String value = readConfigValue(key);
+            if (value != null) {
+                return Long.parseLong(value);
+            }
+        } catch (NumberFormatException e) {
+            System.err.println("Errore lettura " + key + " da config: " + e.getMessage());
+        }
+        return defaultValue;
+    }
+
+    public static boolean getBoolean(String key, boolean defaultValue) {
+        String value = readConfigValue(key);
+        return (value != null) ? Boolean.parseBoolean(value) : defaultValue;
+    }
+
+    private static String readConfigValue(String key) {
+        try {
+            Path configPath = Paths.get(CONFIG_FILE);
+            if (!Files.exists(configPath)) {
+                return null; // nessun file, si usano i default
+            }
+
+            List<String> lines = Files.readAllLines(configPath);
+            for (String line : lines) {
+                line = line.trim();
+
+                // Salta commenti e linee vuote
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+
+                // Cerca chiave=valore
+                if (line.startsWith(key + "=")) {
+                    return line.substring(key.length() + 1).trim();
+                }
+            }
+
+        } catch (Exception e) {
+            System.err.println("Errore lettura file config '" + CONFIG_FILE + "': " + e.getMessage());
+        }
+
+        return null;
+    }
+}
@@ -1,109 +1,156 @@
-/*
- * ServerMain.java
- * cosa fa questa classe:
- * - avvia il server CROSS, ascolta le connessioni in entrata sulla porta specificata
- * - per ogni connessione accettata, crea un nuovo ClientHandler in un thread separato
- * - utilizza un thread pool per gestire efficientemente più connessioni client contemporaneamente
- * - legge la configurazione della porta da un file di configurazione
- * 
- */
-
-
- // aggiungi riferimenti a userManager, orderBook, persistence e notification -> no, non serve perchè li ha già crossServer
-
-package server;
-
-import java.io.IOException;
-import java.net.ServerSocket;
-import java.net.Socket;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-
-public class ServerMain {
-
-    private static final int PORT;
-    private static final int THREAD_POOL_SIZE;
-    private static final String CONFIG_FILE = "config_server.txt";
-    
-    public static void main(String[] args) {
-        PORT = readPortFromConfig();
-        THREAD_POOL_SIZE = readThreadPoolSizeFromConfig();
-        
-        try (ServerSocket serverSocket = new ServerSocket(PORT)) {
-            System.out.println("=== CROSS Server Avviato ===");
-            System.out.println("Porta: " + PORT);
-            System.out.println("Thread pool size: " + THREAD_POOL_SIZE);
-            
-            ExecutorService threadPool = 
-            Executors.newFixedThreadPool(THREAD_POOL_SIZE);
-            CROSSServer server = new CROSSServer();
-
-            
-            while (true) {
-                Socket clientSocket = serverSocket.accept();
-                System.out.println("Nuovo client connesso: " + 
-                clientSocket.getInetAddress());
-                
-                threadPool.execute(new ClientHandler(clientSocket, server));
-
-            }
-            
-        } catch (IOException e) {
-            System.err.println("Errore nel server: " + e.getMessage());
-        }
-    }
-    
-    private static int readPortFromConfig() {
-        try {
-            String value = readConfigValue("server_port");
-            if (value != null) {
-                return Integer.parseInt(value);
-            }
-        } catch (Exception e) {
-            System.err.println("Errore lettura server_port da config: " + e.getMessage());
-        }
-    }
-
-    private static int readThreadPoolSizeFromConfig() {
-        try {
-            String value = readConfigValue("thread_pool_size");
-            if (value != null) {
-                return Integer.parseInt(value);
-            }
-        } catch (Exception e) {
-            System.err.println("Errore lettura thread_pool_size da config: " + e.getMessage());
-        }
-    }
-
-    private static String readConfigValue(String key) {
-    try {
-        Path configPath = Paths.get(CONFIG_FILE);
-        if (!Files.exists(configPath)) {
-            System.err.println("File config non trovato: " + CONFIG_FILE + ". Usando valori default.");
-            return null;
-        }
-        
-        List<String> lines = Files.readAllLines(configPath);
-        for (String line : lines) {
-            line = line.trim();
-            
-            // Salta commenti e linee vuote
-            if (line.isEmpty() || line.startsWith("#")) {
-                continue;
-            }
-            
-            // Cerca chiave=valore
-            if (line.startsWith(key + "=")) {
-                return line.substring(key.length() + 1).trim();
-            }
-        }
-        
-        System.err.println("Chiave '" + key + "' non trovata nel config. Usando valore default.");
-        
-    } catch (Exception e) {
-        System.err.println("Errore lettura file config '" + CONFIG_FILE + "': " + e.getMessage() + ". Usando valori default.");
-    }
-    
-    return null;
-}
-}
+/*
+ * ServerMain.java
+ * cosa fa questa classe:
+ * - avvia il server CROSS, ascolta le connessioni in entrata sulla porta specificata
+ * - per ogni connessione accettata, crea un nuovo ClientHandler in un thread separato
+ * - utilizza un thread pool per gestire efficientemente più connessioni client contemporaneamente
+ * - legge la configurazione della porta da un file di configurazione
+ * - network_mode=nio (default): front end non bloccante (NioServer), pochi thread per qualsiasi numero di client
+ * - network_mode=threads: un ClientHandler bloccante per connessione sul thread pool (al massimo THREAD_POOL_SIZE
+ *   client serviti insieme)
+ * - network_mode=virtual: stesso ClientHandler bloccante, ma ogni connessione ha un suo thread virtuale; il numero
+ *   di client è limitato dalla memoria e non da THREAD_POOL_SIZE. Il codice sotto usa ReentrantLock e non
+ *   synchronized dove si fa I/O, così readLine/println bloccanti non tengono occupato il carrier thread.
+ *   I thread virtuali ci sono da Java 21: l'executor si crea per riflessione, così il resto del server compila
+ *   e gira anche con un JDK più vecchio; lì network_mode=virtual ripiega su threads con un messaggio
+ * 
+ */
+
+
+ // aggiungi riferimenti a userManager, orderBook, persistence e notification -> no, non serve perchè li ha già crossServer
+
+package server;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+public class ServerMain {
+
+    private static int PORT;
+    private static int THREAD_POOL_SIZE;
+    private static final String CONFIG_FILE = "config_server.txt";
+    
+    public static void main(String[] args) {
+        PORT = readPortFromConfig();
+        THREAD_POOL_SIZE = readThreadPoolSizeFromConfig();
+
+        String networkMode = ServerConfig.getString("network_mode", "nio");
+        if (networkMode.equalsIgnoreCase("nio")) {
+            runNio();
+            return;
+        }
+        
+        try (ServerSocket serverSocket = new ServerSocket(PORT)) {
+            System.out.println("=== CROSS Server Avviato ===");
+            System.out.println("Porta: " + PORT);
+            ExecutorService threadPool = null;
+            if (networkMode.equalsIgnoreCase("virtual")) {
+                threadPool = newVirtualThreadExecutor();
+                if (threadPool != null) {
+                    System.out.println("Un thread virtuale per connessione");
+                }
+            }
+            if (threadPool == null) {
+                System.out.println("Thread pool size: " + THREAD_POOL_SIZE);
+                threadPool = Executors.newFixedThreadPool(THREAD_POOL_SIZE);
+            }
+            CROSSServer server = new CROSSServer();
+
+            
+            while (true) {
+                Socket clientSocket = serverSocket.accept();
+                System.out.println("Nuovo client connesso: " + 
+                clientSocket.getInetAddress());
+                
+                threadPool.execute(new ClientHandler(clientSocket, server));
+
+            }
+            
+        } catch (IOException e) {
+            System.err.println("Errore nel server: " + e.getMessage());
+        }
+    }
+    
+    // Executors.newVirtualThreadPerTaskExecutor() esiste da Java 21; null se questa JVM non ha i thread virtuali
+    static ExecutorService newVirtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            System.err.println("network_mode=virtual richiede Java 21 (questa JVM: "
+                + System.getProperty("java.version") + "), uso il thread pool");
+            return null;
+        }
+    }
+
+    private static void runNio() {
+        int selectorThreads = ServerConfig.getInt("nio_selector_threads", 2);
+        int workerThreads = ServerConfig.getInt("nio_worker_threads", Runtime.getRuntime().availableProcessors());
+        try {
+            CROSSServer server = new CROSSServer();
+            NioServer nioServer = new NioServer(server, PORT, selectorThreads, workerThreads);
+            System.out.println("=== CROSS Server Avviato (NIO) ===");
+            System.out.println("Porta: " + PORT);
+            System.out.println("Selector: " + selectorThreads + ", worker: " + workerThreads);
+            nioServer.run();
+        } catch (IOException e) {
+            System.err.println("Errore nel server: " + e.getMessage());
+        }
+    }
+    
+    private static int readPortFromConfig() {
+        try {
+            String value = readConfigValue("server_port");
+            if (value != null) {
+                return Integer.parseInt(value);
+            }
+        } catch (Exception e) {
+            System.err.println("Errore lettura server_port da config: " + e.getMessage());
+        }
+    }
+
+    private static int readThreadPoolSizeFromConfig() {
+        try {
+            String value = readConfigValue("thread_pool_size");
+            if (value != null) {
+                return Integer.parseInt(value);
+            }
+        } catch (Exception e) {
+            System.err.println("Errore lettura thread_pool_size da config: " + e.getMessage());
+        }
+    }
+
+    private static String readConfigValue(String key) {
+    try {
+        Path configPath = Paths.get(CONFIG_FILE);
+        if (!Files.exists(configPath)) {
+            System.err.println("File config non trovato: " + CONFIG_FILE + ". Usando valori default.");
+            return null;
+        }
+        
+        List<String> lines = Files.readAllLines(configPath);
+        for (String line : lines) {
+            line = line.trim();
+            
+            // Salta commenti e linee vuote
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            
+            // Cerca chiave=valore
+            if (line.startsWith(key + "=")) {
+                return line.substring(key.length() + 1).trim();
+            }
+        }
+        
+        System.err.println("Chiave '" + key + "' non trovata nel config. Usando valore default.");
+        
+    } catch (Exception e) {
+        System.err.println("Errore lettura file config '" + CONFIG_FILE + "': " + e.getMessage() + ". Usando valori default.");
+    }
+    
+    return null;
+}
+}
@@ -0,0 +1,196 @@
+/*
+ * SessionTimerWheel.java
+ * cosa fa questa classe:
+ * - un solo timer per tutto il server per i controlli delle sessioni (inattività e connessione chiusa),
+ *   al posto dei due java.util.Timer (= due thread) che prima creava ogni ClientHandler
+ * - hashed timing wheel: un array di bucket, il thread "session-timer" avanza di un bucket ogni tick
+ *   (session_timer_tick_ms, default 1000) e guarda solo le sessioni di quel bucket
+ * - una richiesta del client non tocca la ruota: touch() aggiorna solo il timestamp dell'ultima attività.
+ *   Quando la sessione scade nel suo bucket si ricalcola la scadenza vera dal timestamp e, se il client
+ *   è stato attivo, la si rimette più avanti nella ruota (niente cancel/new Timer ad ogni richiesta)
+ * - ad ogni scadenza controlla anche che la connessione sia aperta, quindi una sessione viene guardata
+ *   almeno ogni connection_check_interval
+ * - le sessioni da chiudere di un tick vengono raccolte e chiuse insieme alla fine del tick
+ * - la ruota è usata solo dal thread del timer: registrazioni in una coda concorrente, cancellazioni
+ *   con un flag controllato quando la sessione esce dal bucket
+ */
+
+package server;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+public class SessionTimerWheel implements Runnable {
+
+    private final long tickMillis;
+    private final Session[] buckets; // liste concatenate tramite Session.next
+    private final int mask;
+    private final ConcurrentLinkedQueue<Session> registrations = new ConcurrentLinkedQueue<>();
+
+    // stato del thread del timer
+    private long currentTick;
+    private final List<Session> expired = new ArrayList<>();
+    private final List<Session> disconnected = new ArrayList<>();
+
+    public SessionTimerWheel(long tickMillis, int wheelSize) {
+        this.tickMillis = Math.max(1, tickMillis);
+        int size = 16;
+        while (size < wheelSize) {
+            size <<= 1; // potenza di 2, così il bucket si trova con una maschera
+        }
+        this.buckets = new Session[size];
+        this.mask = size - 1;
+    }
+
+    public static SessionTimerWheel fromConfig() {
+        SessionTimerWheel wheel = new SessionTimerWheel(
+            ServerConfig.getLong("session_timer_tick_ms", 1000),
+            ServerConfig.getInt("session_timer_wheel_size", 512));
+        Thread thread = new Thread(wheel, "session-timer");
+        thread.setDaemon(true);
+        thread.start();
+        return wheel;
+    }
+
+    // inizia a controllare la sessione di un utente appena loggato
+    public Session register(ClientHandler handler, long inactivityTimeout, long connectionCheckInterval) {
+        Session session = new Session(handler, inactivityTimeout, connectionCheckInterval);
+        registrations.add(session);
+        return session;
+    }
+
+// ========================================= THREAD DEL TIMER ==========================
+
+    @Override
+    public void run() {
+        long nextTickTime = System.currentTimeMillis() + tickMillis;
+        while (true) {
+            long sleep = nextTickTime - System.currentTimeMillis();
+            if (sleep > 0) {
+                try {
+                    Thread.sleep(sleep);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+
+            long now = System.currentTimeMillis();
+            Session session;
+            while ((session = registrations.poll()) != null) {
+                if (!session.cancelled) {
+                    schedule(session, Math.min(session.lastActivity + session.inactivityTimeout,
+                        now + session.connectionCheckInterval), now);
+                }
+            }
+
+            // se il thread è rimasto indietro recupera i tick persi
+            while (nextTickTime <= now) {
+                processBucket(now);
+                currentTick++;
+                nextTickTime += tickMillis;
+            }
+            reap();
+        }
+    }
+
+    private void processBucket(long now) {
+        int index = (int) (currentTick & mask);
+        Session session = buckets[index];
+        buckets[index] = null;
+
+        while (session != null) {
+            Session next = session.next;
+            session.next = null;
+
+            if (session.cancelled) {
+                // tolta dalla ruota
+            } else if (session.rounds > 0) {
+                session.rounds--;
+                session.next = buckets[index];
+                buckets[index] = session;
+            } else if (!session.handler.isConnectionOpen()) {
+                disconnected.add(session);
+            } else {
+                long idleDeadline = session.lastActivity + session.inactivityTimeout;
+                if (now >= idleDeadline) {
+                    expired.add(session);
+                } else {
+                    schedule(session, Math.min(idleDeadline, now + session.connectionCheckInterval), now);
+                }
+            }
+            session = next;
+        }
+    }
+
+    private void schedule(Session session, long deadline, long now) {
+        long ticks = Math.max(1, (deadline - now + tickMillis - 1) / tickMillis);
+        session.rounds = (ticks - 1) / buckets.length;
+        int index = (int) ((currentTick + ticks) & mask);
+        session.next = buckets[index];
+        buckets[index] = session;
+    }
+
+    // chiude insieme le sessioni scadute nei tick appena processati
+    private void reap() {
+        if (expired.isEmpty() && disconnected.isEmpty()) {
+            return;
+        }
+        for (Session session : disconnected) {
+            close(session, true);
+        }
+        for (Session session : expired) {
+            close(session, false);
+        }
+        System.out.println("Timer sessioni: " + expired.size() + " sessioni inattive, "
+            + disconnected.size() + " connessioni chiuse");
+        expired.clear();
+        disconnected.clear();
+    }
+
+    private void close(Session session, boolean connectionLost) {
+        if (session.cancelled) {
+            return; // logout arrivato nel frattempo
+        }
+        session.cancelled = true;
+        try {
+            if (connectionLost) {
+                session.handler.handleConnectionLost(session);
+            } else {
+                session.handler.handleInactivityTimeout(session);
+            }
+        } catch (Exception e) {
+            System.err.println("Errore nella chiusura di una sessione: " + e.getMessage());
+        }
+    }
+
+// ========================================= SESSIONE ==========================
+
+    public static final class Session {
+        private final ClientHandler handler;
+        private final long inactivityTimeout;
+        private final long connectionCheckInterval;
+        private volatile long lastActivity = System.currentTimeMillis();
+        private volatile boolean cancelled;
+
+        // usati solo dal thread del timer
+        private Session next;
+        private long rounds;
+
+        private Session(ClientHandler handler, long inactivityTimeout, long connectionCheckInterval) {
+            this.handler = handler;
+            this.inactivityTimeout = inactivityTimeout;
+            this.connectionCheckInterval = Math.max(1, connectionCheckInterval);
+        }
+
+        // chiamata ad ogni richiesta del client
+        public void touch() {
+            lastActivity = System.currentTimeMillis();
+        }
+
+        // logout o disconnessione: la sessione esce dalla ruota al prossimo passaggio del suo bucket
+        public void cancel() {
+            cancelled = true;
+        }
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * SocketConnection.java
+ * cosa fa questa classe:
+ * - ClientConnection su socket bloccante, usata in modalità network_mode=threads e virtual
+ * - le scritture sono serializzate con un lock: risposte e messaggi market data non si mescolano
+ * - il lock è un ReentrantLock e non synchronized perchè un thread virtuale che si blocca
+ *   sul socket dentro un synchronized terrebbe occupato il carrier thread
+ */
+
+package server;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.io.OutputStreamWriter;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.locks.ReentrantLock;
+
+public class SocketConnection implements ClientConnection {
+    private final Socket socket;
+    private final OutputStream rawOut; // frame binari
+    private final PrintWriter out;
+    private final ReentrantLock writeLock = new ReentrantLock();
+
+    public SocketConnection(Socket socket) throws IOException {
+        this.socket = socket;
+        this.rawOut = socket.getOutputStream();
+        this.out = new PrintWriter(new OutputStreamWriter(rawOut, StandardCharsets.UTF_8), false);
+    }
+
+    public Socket getSocket() { return socket; }
+
+    @Override
+    public InetAddress getRemoteAddress() {
+        return socket.getInetAddress();
+    }
+
+    @Override
+    public boolean isOpen() {
+        return !socket.isClosed() && socket.isConnected();
+    }
+
+    @Override
+    public boolean write(String lines) {
+        writeLock.lock();
+        try {
+            out.print(lines);
+            out.flush();
+            return !out.checkError();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public boolean write(ByteBuffer data) {
+        writeLock.lock();
+        try {
+            if (data.hasArray()) {
+                rawOut.write(data.array(), data.arrayOffset() + data.position(), data.remaining());
+                data.position(data.limit());
+            } else {
+                byte[] bytes = new byte[data.remaining()];
+                data.get(bytes);
+                rawOut.write(bytes);
+            }
+            rawOut.flush();
+            return true;
+        } catch (IOException e) {
+            return false;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public void close() {
+        try {
+            if (!socket.isClosed()) {
+                socket.close();
+                System.out.println("Connessione chiusa: " + socket.getInetAddress());
+            }
+        } catch (IOException e) {
+            System.err.println("Errore chiusura socket: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,41 @@
+/*
+ * StopCascadeStats.java
+ * cosa fa questa classe:
+ * - metriche delle cascate di stop order di un OrderBook
+ * - profondità = numero di "ondate": stop attivati da trade di stop attivati a loro volta
+ * - viene aggiornata solo dal thread che possiede il book, i campi volatile permettono di leggerla da altri thread
+ */
+
+package server;
+
+public class StopCascadeStats {
+    private volatile int lastDepth;
+    private volatile int maxDepth;
+    private volatile int lastExecuted;    // stop eseguiti nell'ultimo evento
+    private volatile long totalExecuted;
+    private volatile long budgetExhausted; // eventi in cui il budget è finito prima della cascata
+    private volatile int pending;          // stop attivati in attesa del prossimo evento
+
+    void record(int depth, int executed, int pendingAfter) {
+        lastDepth = depth;
+        if (depth > maxDepth) maxDepth = depth;
+        lastExecuted = executed;
+        totalExecuted += executed;
+        if (pendingAfter > 0) budgetExhausted++;
+        pending = pendingAfter;
+    }
+
+    public int getLastDepth() { return lastDepth; }
+    public int getMaxDepth() { return maxDepth; }
+    public int getLastExecuted() { return lastExecuted; }
+    public long getTotalExecuted() { return totalExecuted; }
+    public long getBudgetExhausted() { return budgetExhausted; }
+    public int getPending() { return pending; }
+
+    @Override
+    public String toString() {
+        return "cascata stop: ultima profondità " + lastDepth + ", max " + maxDepth
+            + ", eseguiti ultimo evento " + lastExecuted + ", totale " + totalExecuted
+            + ", budget esaurito " + budgetExhausted + " volte, in attesa " + pending;
+    }
+}
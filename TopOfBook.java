@@ -0,0 +1,59 @@
+/*
+ * TopOfBook.java
+ * cosa fa questa classe:
+ * - fotografia immutabile del "top of book": miglior bid e ask (prezzo e quantità) e prezzo di mercato
+ * - l'OrderBook ne pubblica una nuova tramite un campo volatile dopo ogni evento che cambia il top
+ * - chi legge da altri thread (stato, rischio, market data) non prende il lock del book e non rallenta il matching
+ * - sequence cresce di 1 ad ogni pubblicazione, così un lettore capisce se è cambiato qualcosa
+ * - prezzo -1 = nessun ordine su quel lato, prezzoMercato 0 = non ancora definito
+ */
+
+package server;
+
+public final class TopOfBook {
+    static final TopOfBook EMPTY = new TopOfBook(0, -1, 0, -1, 0, 0);
+
+    private final long sequence;
+    private final int bidPrice;
+    private final long bidSize;   // quantità residua totale al miglior bid
+    private final int askPrice;
+    private final long askSize;   // quantità residua totale al miglior ask
+    private final int prezzoMercato;
+
+    TopOfBook(long sequence, int bidPrice, long bidSize, int askPrice, long askSize, int prezzoMercato) {
+        this.sequence = sequence;
+        this.bidPrice = bidPrice;
+        this.bidSize = bidSize;
+        this.askPrice = askPrice;
+        this.askSize = askSize;
+        this.prezzoMercato = prezzoMercato;
+    }
+
+    public long getSequence() { return sequence; }
+    public int getBidPrice() { return bidPrice; }
+    public long getBidSize() { return bidSize; }
+    public int getAskPrice() { return askPrice; }
+    public long getAskSize() { return askSize; }
+    public int getPrezzoMercato() { return prezzoMercato; }
+
+    // -1 se uno dei due lati è vuoto
+    public int getSpread() {
+        if (bidPrice == -1 || askPrice == -1) {
+            return -1;
+        }
+        return askPrice - bidPrice;
+    }
+
+    // true se i valori sono gli stessi di questa fotografia (la sequence non conta)
+    boolean sameAs(int bidPrice, long bidSize, int askPrice, long askSize, int prezzoMercato) {
+        return this.bidPrice == bidPrice && this.bidSize == bidSize
+            && this.askPrice == askPrice && this.askSize == askSize
+            && this.prezzoMercato == prezzoMercato;
+    }
+
+    @Override
+    public String toString() {
+        return "top of book #" + sequence + ": bid " + bidSize + "@" + bidPrice
+            + ", ask " + askSize + "@" + askPrice + ", prezzo mercato " + prezzoMercato;
+    }
+}
@@ -0,0 +1,43 @@
+/*
+ * TopOfBookTape.java
+ * cosa fa questa classe:
+ * - storico recente dei top of book pubblicati da un OrderBook, per il feed multicast: chi legge a intervalli
+ *   vede ogni cambio del top e non solo l'ultimo (il campo volatile topOfBook tiene solo l'ultimo)
+ * - buffer circolare di riferimenti alle fotografie TopOfBook (immutabili), indicizzato con la loro sequenza
+ * - se un lettore resta indietro più della capacità, i cambi più vecchi sono persi: readAfter riparte dal più
+ *   vecchio ancora disponibile e il lettore vede il salto nelle sequenze (come TradeTape)
+ * - scrive il thread che possiede il book, leggono altri thread: sezioni synchronized molto corte
+ */
+
+package server;
+
+public class TopOfBookTape {
+    private final TopOfBook[] entries;
+    private final int mask;
+    private long lastSequence; // 0 = nessun top pubblicato
+
+    public TopOfBookTape(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        this.entries = new TopOfBook[size];
+        this.mask = size - 1;
+    }
+
+    // chiamato da publishTopOfBook con la fotografia appena pubblicata (sequenze consecutive)
+    public synchronized void append(TopOfBook top) {
+        entries[(int) (top.getSequence() & mask)] = top;
+        lastSequence = top.getSequence();
+    }
+
+    public synchronized long getLastSequence() { return lastSequence; }
+
+    // copia in out i top con sequenza > afterSequence (al massimo out.length), ritorna quanti ne ha copiati
+    public synchronized int readAfter(long afterSequence, TopOfBook[] out) {
+        long oldest = Math.max(1, lastSequence - entries.length + 1);
+        long from = Math.max(afterSequence + 1, oldest);
+        int count = 0;
+        for (long seq = from; seq <= lastSequence && count < out.length; seq++) {
+            out[count++] = entries[(int) (seq & mask)];
+        }
+        return count;
+    }
+}
@@ -0,0 +1,52 @@
+/*
+ * TradePool.java
+ * cosa fa questa classe:
+ * - riusa gli oggetti Trade creati dal matching invece di allocarne uno nuovo per ogni esecuzione
+ * - l'orderbook prende un trade con acquire e lo restituisce con release quando processTrades ha finito
+ *   (notifiche e persistenza non devono tenere riferimenti al Trade dopo processTrades)
+ * - se disattivato (config pooled_matching=false, default) acquire crea sempre un Trade nuovo e release non fa nulla
+ * - da solo non rende il matching privo di allocazioni: vedi il commento su POOLED_MATCHING nell'OrderBook
+ * - non è thread safe: ogni OrderBook ha il suo pool, usato solo da chi possiede il book
+ */
+
+package server;
+
+import shared.*;
+import java.util.ArrayDeque;
+
+public class TradePool {
+    private final ArrayDeque<Trade> freeTrades;
+    private final boolean enabled;
+    private final int maxPooled;
+
+    public TradePool(boolean enabled, int initialSize, int maxPooled) {
+        this.enabled = enabled;
+        this.maxPooled = maxPooled;
+        this.freeTrades = new ArrayDeque<>(enabled ? maxPooled : 0);
+        if (enabled) {
+            for (int i = 0; i < initialSize; i++) {
+                freeTrades.addLast(new Trade());
+            }
+        }
+    }
+
+    public Trade acquire(long askOrderId, long bidOrderId, int size, int price, String askUser, String bidUser) {
+        if (!enabled) {
+            return new Trade(askOrderId, bidOrderId, size, price, askUser, bidUser);
+        }
+        Trade trade = freeTrades.pollLast();
+        if (trade == null) {
+            trade = new Trade(); // pool vuoto: cresce fino a maxPooled
+        }
+        trade.reset(askOrderId, bidOrderId, size, price, askUser, bidUser);
+        return trade;
+    }
+
+    public void release(Trade trade) {
+        if (enabled && freeTrades.size() < maxPooled) {
+            freeTrades.addLast(trade);
+        }
+    }
+
+    public boolean isEnabled() { return enabled; }
+}
@@ -0,0 +1,68 @@
+/*
+ * TradeTape.java
+ * cosa fa questa classe:
+ * - "nastro" pubblico dei trade di un OrderBook (trade prints): prezzo, quantità e ora di ogni esecuzione
+ * - buffer circolare di dimensione fissa su array primitivi: scrivere un trade non alloca
+ * - ogni trade ha un numero di sequenza crescente (il primo è 1), chi legge chiede i trade dopo l'ultimo visto
+ * - se un lettore resta indietro più della capacità, i trade più vecchi sono persi: readAfter riparte dal più
+ *   vecchio ancora disponibile e il lettore vede il salto nelle sequenze
+ * - scrive il thread che possiede il book, leggono altri thread (market data): sezioni synchronized molto corte
+ */
+
+package server;
+
+import shared.*;
+import java.util.List;
+
+public class TradeTape {
+    private final long[] sequences;
+    private final int[] prices;
+    private final int[] sizes;
+    private final long[] times;
+    private final int mask;
+    private long lastSequence; // 0 = nessun trade
+
+    public TradeTape(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        this.sequences = new long[size];
+        this.prices = new int[size];
+        this.sizes = new int[size];
+        this.times = new long[size];
+        this.mask = size - 1;
+    }
+
+    // chiamato da processTrades con i trade appena eseguiti
+    public void appendAll(List<Trade> trades) {
+        long now = System.currentTimeMillis();
+        synchronized (this) {
+            for (int i = 0; i < trades.size(); i++) {
+                Trade trade = trades.get(i);
+                lastSequence++;
+                int index = (int) (lastSequence & mask);
+                sequences[index] = lastSequence;
+                prices[index] = (int) trade.getPrice();
+                sizes[index] = trade.getSize();
+                times[index] = now;
+            }
+        }
+    }
+
+    public synchronized long getLastSequence() { return lastSequence; }
+
+    // copia negli array passati i trade con sequenza > afterSequence (al massimo outSequences.length),
+    // ritorna quanti ne ha copiati
+    public synchronized int readAfter(long afterSequence, long[] outSequences, int[] outPrices, int[] outSizes, long[] outTimes) {
+        long oldest = Math.max(1, lastSequence - sequences.length + 1);
+        long from = Math.max(afterSequence + 1, oldest);
+        int count = 0;
+        for (long seq = from; seq <= lastSequence && count < outSequences.length; seq++) {
+            int index = (int) (seq & mask);
+            outSequences[count] = sequences[index];
+            outPrices[count] = prices[index];
+            outSizes[count] = sizes[index];
+            outTimes[count] = times[index];
+            count++;
+        }
+        return count;
+    }
+}
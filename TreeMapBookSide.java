@@ -0,0 +1,87 @@
+/*
+ * TreeMapBookSide.java
+ * cosa fa questa classe:
+ * - implementazione di BookSide basata su TreeMap (versione originale dell'orderbook)
+ * - accetta qualsiasi prezzo positivo, ma ogni accesso è una ricerca nell'albero con chiave Integer
+ *   (boxing a ogni get/put/higherEntry): per il matching senza allocazioni serve il ladder (PriceLadderBookSide)
+ */
+
+package server;
+
+import shared.*;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+
+public class TreeMapBookSide<T extends Order> implements BookSide<T> {
+    private final TreeMap<Integer, PriceLevel<T>> levels;
+    private long totalVolume; // somma delle quantità residue di tutti i livelli
+    private long version;     // numero di modifiche, vedi BookSide.version
+
+    // descending = true per i BID (prezzi più alti prima)
+    public TreeMapBookSide(boolean descending) {
+        this.levels = descending ? new TreeMap<>(Collections.reverseOrder()) : new TreeMap<>();
+    }
+
+    @Override
+    public PriceLevel<T> getLevel(int price) {
+        return levels.get(price);
+    }
+
+    @Override
+    public PriceLevel<T> getOrCreateLevel(int price) {
+        PriceLevel<T> level = levels.get(price);
+        if (level == null) {
+            // se non ho ancora ordini di questo prezzo, creo il livello vuoto
+            level = new PriceLevel<>(price, this);
+            levels.put(price, level);
+        }
+        return level;
+    }
+
+    @Override
+    public void removeLevel(int price) {
+        PriceLevel<T> level = levels.get(price);
+        if (level != null && level.isEmpty()) {
+            levels.remove(price);
+        }
+    }
+
+    @Override
+    public PriceLevel<T> bestLevel() {
+        return levels.isEmpty() ? null : levels.firstEntry().getValue();
+    }
+
+    @Override
+    public PriceLevel<T> nextLevel(PriceLevel<T> level) {
+        // higherEntry rispetta il comparatore: per i BID è il prezzo più basso successivo
+        Map.Entry<Integer, PriceLevel<T>> next = levels.higherEntry(level.getPrice());
+        return (next == null) ? null : next.getValue();
+    }
+
+    @Override
+    public boolean accepts(int price) {
+        return price > 0;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return levels.isEmpty();
+    }
+
+    @Override
+    public long totalVolume() {
+        return totalVolume;
+    }
+
+    @Override
+    public void adjustVolume(long delta) {
+        totalVolume += delta;
+        version++;
+    }
+
+    @Override
+    public long version() {
+        return version;
+    }
+}
@@ -0,0 +1,42 @@
+/*
+ * WaitStrategy.java
+ * cosa fa questa enum:
+ * - decide come aspetta un thread del MatchingEngine quando non c'è lavoro (engine) o la risposta non è pronta (client)
+ * - BUSY_SPIN: latenza minima, occupa un core al 100%
+ * - YIELD: gira un po' e poi cede il core agli altri thread
+ * - PARK: gira un po' e poi si sospende (consumo CPU minimo, latenza più alta)
+ * - da config: engine_wait_strategy=busy_spin|yield|park
+ */
+
+package server;
+
+import java.util.concurrent.locks.LockSupport;
+
+public enum WaitStrategy {
+    BUSY_SPIN,
+    YIELD,
+    PARK;
+
+    private static final int SPIN_TRIES = 100;
+    private static final long PARK_NANOS = 50_000; // 50 microsecondi
+
+    // un giro di attesa, spins = quante volte si è già aspettato per la stessa condizione
+    public void idle(int spins) {
+        if (this == BUSY_SPIN || spins < SPIN_TRIES) {
+            Thread.onSpinWait();
+        } else if (this == YIELD) {
+            Thread.yield();
+        } else {
+            LockSupport.parkNanos(PARK_NANOS);
+        }
+    }
+
+    public static WaitStrategy fromConfig(String value) {
+        try {
+            return WaitStrategy.valueOf(value.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            System.err.println("engine_wait_strategy non valida: " + value + ", uso PARK");
+            return PARK;
+        }
+    }
+}
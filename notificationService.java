@@ -1,85 +1,391 @@
-// cosa fa questa classe:
-// - apre una socket UDP per inviare notifiche ai client
-// - dal trade recupera utente buyer e seller
-// - recupera indirizzo e porta UDP dal userManager
-// - invia notifica UDP a entrambi gli utenti coinvolti nel trade
-
-package server;
-
-import java.net.DatagramSocket;
-import java.net.DatagramPacket;
-import java.net.SocketException;
-import java.net.InetAddress;
-import java.io.IOException;
-import java.nio.charset.StandardCharsets;
-import org.json.JSONObject;
-import shared.Trade;
-import shared.UserSession;
-import server.UserManager;
-
-// === GESTIONE NOTIFICHE UDP ============================
-public class NotificationService {
-    private DatagramSocket udpSocket;
-    private UserManager userManager; // Aggiungi riferimento a UserManager
-    
-    public NotificationService(UserManager userManager) {
-        this.userManager = userManager;
-        try {
-            udpSocket = new DatagramSocket(); 
-        } catch (SocketException e) {
-            System.err.println("Errore nell'apertura socket UDP: " + e.getMessage());
-        }
-    }
-    
-    // Nuovo metodo per notificare destinatari specifici (array)
-    public void notifyBuyer(Trade trade) {
-        notifyTradeToUser(trade, trade.getBuyer(), "buy");
-    }
-
-    public void notifySeller(Trade trade) {
-        notifyTradeToUser(trade, trade.getSeller(), "sell");
-    }
-
-    private void notifyTradeToUser(Trade trade, String username, String type) {
-        try {
-            // Crea il messaggio di notifica
-            JSONObject notification = new JSONObject();
-            notification.put("notification", "tradeExecuted");
-            if (type.equals("buy")) {
-                notification.put("orderId", trade.getBuyOrderId());
-            } else {
-                notification.put("orderId", trade.getSellOrderId());
-            }
-            notification.put("type", type);
-            notification.put("size", trade.getSize());
-            notification.put("price", trade.getPrice());
-            notification.put("timestamp", System.currentTimeMillis());
-            
-            String message = notification.toString();
-            byte[] buffer = message.getBytes(StandardCharsets.UTF_8); // Codifica in UTF-8, serve? (?)
-            
-            // Invia al destinatario specificato
-            UserSession session = userManager.getUserSession(username);
-
-            if (session != null && session.getClientAddress() != null) {
-                InetAddress clientAddress = session.getClientAddress();
-                int udpPort = session.getUdpPort();
-
-                DatagramPacket packet = new DatagramPacket(buffer, buffer.length, clientAddress, udpPort);
-                udpSocket.send(packet);
-
-            } else {
-                System.err.println("Utente non connesso o sessione non valida: " + username);
-            }
-            
-        } catch (IOException e) {
-            System.err.println("Errore nell'invio notifica UDP a " + username + ": " + e.getMessage());
-        }
-    }
-    
-    public void close() {
-        if (udpSocket != null && !udpSocket.isClosed()) {
-            udpSocket.close();
-        }
-    }
-}
+// cosa fa questa classe:
+// - apre una socket UDP per inviare notifiche ai client
+// - dal trade recupera utente buyer e seller
+// - recupera indirizzo e porta UDP dal userManager
+// - invia notifica UDP a entrambi gli utenti coinvolti nel trade
+// - l'invio è asincrono: notifyBuyer/notifySeller copiano i dati del trade in una coda limitata
+//   (notification_queue_size) e ritornano subito; un thread dedicato ("notification-dispatcher")
+//   costruisce il JSON, cerca la sessione e fa la send. Così il matching non paga JSON e syscall
+// - se la coda è piena decide notification_overflow_policy: drop_newest (default), drop_oldest o block
+// - metriche: notifiche accodate, inviate, scartate, profondità attuale e massima della coda
+// - batching: il dispatcher prende tutte le notifiche in coda (più, se configurata, una breve finestra
+//   notification_batch_window_ms) e manda ad ogni utente un solo datagram "closedTrades" con l'array dei fill,
+//   diviso in più datagram se supera notification_max_datagram byte (default 1400, sotto l'MTU)
+// - ogni datagram ha "seq", crescente per sessione (riparte da 1 ad ogni login); gli ultimi
+//   notification_replay_size messaggi restano in un buffer e il client può richiederli via TCP
+//   (resendNotifications con fromSeq) se vede un buco nelle sequenze
+
+package server;
+
+import java.net.DatagramSocket;
+import java.net.DatagramPacket;
+import java.net.SocketException;
+import java.net.InetAddress;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import shared.Trade;
+import shared.UserSession;
+import server.UserManager;
+
+// === GESTIONE NOTIFICHE UDP ============================
+public class NotificationService {
+    private DatagramSocket udpSocket;
+    private UserManager userManager; // Aggiungi riferimento a UserManager
+
+    // cosa fare quando la coda è piena
+    public enum OverflowPolicy { DROP_NEWEST, DROP_OLDEST, BLOCK }
+
+    private final BlockingQueue<TradeNotification> queue;
+    private final OverflowPolicy overflowPolicy;
+    private final Thread dispatcherThread;
+    private volatile boolean running = true;
+
+    // batching: i fill dello stesso utente vanno in un solo datagram (diviso sotto l'MTU)
+    private static final long BATCH_WINDOW_MS = ServerConfig.getLong("notification_batch_window_ms", 0);
+    private static final int MAX_DATAGRAM_SIZE = ServerConfig.getInt("notification_max_datagram", 1400);
+    private static final String BATCH_PREFIX = "{\"notification\":\"closedTrades\",\"seq\":";
+    // buffer riusati dal thread dispatcher per scrivere i datagram (FastJson, niente JSONObject per fill)
+    private final StringBuilder messageBuffer = new StringBuilder(MAX_DATAGRAM_SIZE);
+    private final StringBuilder fillBuffer = new StringBuilder(128);
+
+    // sequenza per sessione e ultimi messaggi inviati, per il recupero via TCP (resendNotifications)
+    private static final int REPLAY_SIZE = ServerConfig.getInt("notification_replay_size", 1024);
+    private final Map<String, SessionChannel> channels = new ConcurrentHashMap<>();
+
+    // metriche
+    private final AtomicLong enqueued = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong sent = new AtomicLong();          // fill notificati
+    private final AtomicLong datagramsSent = new AtomicLong(); // datagram UDP inviati (più fill per datagram)
+    private final AtomicInteger maxDepth = new AtomicInteger(); // più produttori: massimo atomico
+    
+    public NotificationService(UserManager userManager) {
+        this.userManager = userManager;
+        try {
+            udpSocket = new DatagramSocket(); 
+        } catch (SocketException e) {
+            System.err.println("Errore nell'apertura socket UDP: " + e.getMessage());
+        }
+
+        this.queue = new ArrayBlockingQueue<>(ServerConfig.getInt("notification_queue_size", 8192));
+        this.overflowPolicy = readOverflowPolicy();
+        this.dispatcherThread = new Thread(this::dispatchLoop, "notification-dispatcher");
+        this.dispatcherThread.setDaemon(true);
+        this.dispatcherThread.start();
+    }
+
+    private static OverflowPolicy readOverflowPolicy() {
+        String value = ServerConfig.getString("notification_overflow_policy", "drop_newest");
+        try {
+            return OverflowPolicy.valueOf(value.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            System.err.println("notification_overflow_policy non valida: " + value + ", uso DROP_NEWEST");
+            return OverflowPolicy.DROP_NEWEST;
+        }
+    }
+    
+    // Nuovo metodo per notificare destinatari specifici (array)
+    // chiamati dal matching: copiano i campi (i Trade possono essere riusati dal TradePool) e accodano
+    public void notifyBuyer(Trade trade) {
+        enqueue(new TradeNotification(trade.getBuyer(), trade.getBuyOrderId(), "buy", trade.getSize(), trade.getPrice()));
+    }
+
+    public void notifySeller(Trade trade) {
+        enqueue(new TradeNotification(trade.getSeller(), trade.getSellOrderId(), "sell", trade.getSize(), trade.getPrice()));
+    }
+
+    private void enqueue(TradeNotification notification) {
+        boolean accepted;
+        switch (overflowPolicy) {
+            case BLOCK:
+                try {
+                    queue.put(notification); // il matching aspetta il dispatcher
+                    accepted = true;
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    accepted = false;
+                }
+                break;
+            case DROP_OLDEST:
+                accepted = queue.offer(notification);
+                while (!accepted) {
+                    if (queue.poll() != null) {
+                        recordDrop();
+                    }
+                    accepted = queue.offer(notification);
+                }
+                break;
+            default: // DROP_NEWEST
+                accepted = queue.offer(notification);
+        }
+
+        if (!accepted) {
+            recordDrop();
+            return;
+        }
+        enqueued.incrementAndGet();
+        int depth = queue.size();
+        if (depth > maxDepth.get()) {
+            maxDepth.accumulateAndGet(depth, Math::max);
+        }
+    }
+
+    private void recordDrop() {
+        long count = dropped.incrementAndGet();
+        if (count == 1 || count % 1000 == 0) {
+            System.err.println("Coda notifiche piena (" + overflowPolicy + "): " + getStats());
+        }
+    }
+
+// ========================================= THREAD DISPATCHER ==========================
+
+    // prende tutte le notifiche già in coda (un evento di matching le accoda tutte insieme), aspetta al massimo
+    // notification_batch_window_ms per raccoglierne altre, poi manda un datagram per utente
+    private void dispatchLoop() {
+        List<TradeNotification> batch = new ArrayList<>();
+        Map<String, List<TradeNotification>> byUser = new LinkedHashMap<>();
+        while (running) {
+            try {
+                batch.add(queue.take());
+                if (BATCH_WINDOW_MS > 0) {
+                    Thread.sleep(BATCH_WINDOW_MS);
+                }
+                queue.drainTo(batch);
+
+                // raggruppo per destinatario mantenendo l'ordine dei fill
+                for (int i = 0; i < batch.size(); i++) {
+                    TradeNotification notification = batch.get(i);
+                    byUser.computeIfAbsent(notification.username, user -> new ArrayList<>()).add(notification);
+                }
+                for (Map.Entry<String, List<TradeNotification>> entry : byUser.entrySet()) {
+                    notifyTradesToUser(entry.getKey(), entry.getValue());
+                }
+            } catch (InterruptedException e) {
+                if (!running) {
+                    return;
+                }
+            } catch (Exception e) {
+                System.err.println("Errore nel dispatcher notifiche: " + e.getMessage());
+            } finally {
+                batch.clear();
+                byUser.clear();
+            }
+        }
+    }
+
+    // tutti i fill dell'utente in datagram {"notification":"closedTrades","trades":[...]},
+    // divisi in più datagram se superano notification_max_datagram byte
+    private void notifyTradesToUser(String username, List<TradeNotification> trades) {
+        // Invia al destinatario specificato
+        UserSession session = userManager.getUserSession(username);
+        if (session == null || session.getClientAddress() == null) {
+            System.err.println("Utente non connesso o sessione non valida: " + username);
+            return;
+        }
+        SessionChannel channel = channelFor(username, session);
+
+        try {
+            StringBuilder message = messageBuffer;
+            message.setLength(0);
+            int fillsInMessage = 0;
+            int messageBytes = 0; // lunghezza in UTF-8 di message: il limite è sul datagram, non sui char
+            for (int i = 0; i < trades.size(); i++) {
+                StringBuilder fill = fillBuffer;
+                fill.setLength(0);
+                appendTrade(fill, trades.get(i));
+                int fillBytes = utf8Length(fill);
+                // se il fill non ci sta nel datagram corrente, mando quello che ho e ne inizio un altro
+                if (fillsInMessage > 0 && messageBytes + fillBytes + 3 > MAX_DATAGRAM_SIZE) {
+                    sendDatagram(message, channel);
+                    fillsInMessage = 0;
+                }
+                if (fillsInMessage == 0) {
+                    message.append(BATCH_PREFIX).append(channel.nextSequence()).append(",\"trades\":[");
+                    messageBytes = message.length(); // intestazione solo ASCII
+                } else {
+                    message.append(',');
+                    messageBytes++;
+                }
+                message.append(fill);
+                messageBytes += fillBytes;
+                fillsInMessage++;
+                sent.incrementAndGet();
+            }
+            sendDatagram(message, channel);
+        } catch (IOException e) {
+            System.err.println("Errore nell'invio notifica UDP a " + username + ": " + e.getMessage());
+        }
+    }
+
+    // un fill in JSON scritto senza org.json (FastJson)
+    private static void appendTrade(StringBuilder out, TradeNotification trade) {
+        FastJson.beginObject(out);
+        FastJson.field(out, "orderId", trade.orderId);
+        FastJson.field(out, "type", trade.type);
+        FastJson.field(out, "size", trade.size);
+        FastJson.field(out, "price", trade.price);
+        FastJson.field(out, "timestamp", trade.timestamp);
+        FastJson.endObject(out);
+    }
+
+    // byte di text in UTF-8, senza creare l'array (getBytes)
+    private static int utf8Length(CharSequence text) {
+        int bytes = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c < 0x80) {
+                bytes++;
+            } else if (c < 0x800) {
+                bytes += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < text.length() && Character.isLowSurrogate(text.charAt(i + 1))) {
+                bytes += 4; // coppia surrogata = un solo carattere da 4 byte
+                i++;
+            } else {
+                bytes += 3;
+            }
+        }
+        return bytes;
+    }
+
+    // chiude l'array, salva il messaggio nel buffer di replay e invia, poi svuota il builder.
+    // il messaggio viene salvato prima della send: anche se l'invio fallisce il client può chiederlo di nuovo
+    private void sendDatagram(StringBuilder message, SessionChannel channel) throws IOException {
+        message.append("]}");
+        String text = message.toString();
+        message.setLength(0);
+        channel.store(text);
+
+        byte[] buffer = text.getBytes(StandardCharsets.UTF_8);
+        DatagramPacket packet = new DatagramPacket(buffer, buffer.length, channel.session.getClientAddress(), channel.session.getUdpPort());
+        udpSocket.send(packet);
+        datagramsSent.incrementAndGet();
+    }
+
+// ========================================= SEQUENZE E RECUPERO ==========================
+
+    // canale della sessione attuale: un nuovo login crea una nuova sessione, quindi la sequenza riparte da 1
+    private SessionChannel channelFor(String username, UserSession session) {
+        SessionChannel channel = channels.get(username);
+        if (channel == null || channel.session != session) {
+            channel = new SessionChannel(session, REPLAY_SIZE);
+            channels.put(username, channel);
+        }
+        return channel;
+    }
+
+    // al logout: la sessione è finita, il buffer di replay non serve più
+    public void closeSession(String username) {
+        channels.remove(username);
+    }
+
+    // risposta per resendNotifications: i messaggi con seq >= fromSeq ancora nel buffer.
+    // 101 se quelli richiesti sono già usciti dal buffer (il client deve rifare una query completa)
+    public JSONObject resendNotifications(String username, long fromSeq) {
+        JSONObject response = new JSONObject();
+        SessionChannel channel = channels.get(username);
+        if (channel == null || channel.session != userManager.getUserSession(username)) {
+            response.put("response", 100);
+            response.put("notifications", new JSONArray());
+            response.put("lastSeq", 0);
+            return response;
+        }
+
+        synchronized (channel) {
+            long oldest = channel.oldestSequence();
+            if (fromSeq < oldest) {
+                response.put("response", 101);
+                response.put("errorMessage", "notifiche precedenti a " + oldest + " non più disponibili");
+                response.put("oldestSeq", oldest);
+                return response;
+            }
+            JSONArray notifications = new JSONArray();
+            for (long seq = Math.max(fromSeq, 1); seq < channel.nextSequence; seq++) {
+                notifications.put(new JSONObject(channel.get(seq)));
+            }
+            response.put("response", 100);
+            response.put("notifications", notifications);
+            response.put("lastSeq", channel.nextSequence - 1);
+        }
+        return response;
+    }
+    
+    public long getEnqueued() { return enqueued.get(); }
+    public long getDropped() { return dropped.get(); }
+    public long getSent() { return sent.get(); }
+    public long getDatagramsSent() { return datagramsSent.get(); }
+    public int getQueueDepth() { return queue.size(); }
+    public int getMaxQueueDepth() { return maxDepth.get(); }
+
+    public String getStats() {
+        return "notifiche accodate " + getEnqueued() + ", inviate " + getSent() + " in " + getDatagramsSent()
+            + " datagram, scartate " + getDropped()
+            + ", coda " + getQueueDepth() + " (max " + getMaxQueueDepth() + ")";
+    }
+    
+    public void close() {
+        running = false;
+        dispatcherThread.interrupt();
+        if (udpSocket != null && !udpSocket.isClosed()) {
+            udpSocket.close();
+        }
+    }
+
+    // sequenza e buffer circolare degli ultimi messaggi di una sessione.
+    // scrive solo il dispatcher, legge anche il thread del client che chiede il recupero: synchronized
+    private static final class SessionChannel {
+        final UserSession session;
+        private final String[] replay; // messaggio con sequenza seq in posizione seq % length
+        private long nextSequence = 1;
+
+        SessionChannel(UserSession session, int replaySize) {
+            this.session = session;
+            this.replay = new String[replaySize];
+        }
+
+        // sequenza del messaggio in costruzione (diventa definitiva con store)
+        synchronized long nextSequence() { return nextSequence; }
+
+        synchronized void store(String message) {
+            replay[(int) (nextSequence % replay.length)] = message;
+            nextSequence++;
+        }
+
+        synchronized long oldestSequence() {
+            return Math.max(1, nextSequence - replay.length);
+        }
+
+        synchronized String get(long seq) {
+            return replay[(int) (seq % replay.length)];
+        }
+    }
+
+    // dati di un trade per un singolo destinatario, copiati al momento dell'esecuzione
+    private static final class TradeNotification {
+        final String username;
+        final String orderId;
+        final String type; // "buy" o "sell"
+        final int size;
+        final double price;
+        final long timestamp;
+
+        TradeNotification(String username, String orderId, String type, int size, double price) {
+            this.username = username;
+            this.orderId = orderId;
+            this.type = type;
+            this.size = size;
+            this.price = price;
+            this.timestamp = System.currentTimeMillis();
+        }
+    }
+}
@@ -1,621 +1,950 @@
-// implementa getbyorderid
-
-package server;
-
-import shared.*; // riguarda (?)
-import server.*;
-import org.json.JSONArray;
-import org.json.JSONObject;
-import java.util.*;
-import java.util.stream.Collectors;
-import java.io.IOException;
-import java.net.Socket; // per UserSession
-import java.util.Timer; // per i timer
-import java.util.TimerTask; // per i timer
-
-// ASK = vendere
-// BID = comprare
-
-public class OrderBook 
-{
-    // BID orders: prezzi decrescenti (migliori offerte prime)
-    private Map<Integer, List<LimitOrder>> bidOrders;
-    // ASK orders: prezzi crescenti (migliori richieste prime)  
-    private Map<Integer, List<LimitOrder>> askOrders;
-    
-    // STOP orders
-    private Map<Integer, List<StopOrder>> askStopOrders;
-    private Map<Integer, List<StopOrder>> bidStopOrders;
-    
-    private int prezzoMercato; // (best bid + best ask)/2
-    private PersistenceManager persistenceManager;
-    private NotificationService notificationService;
-    
-    public OrderBook(PersistenceManager persistenceManager, NotificationService notificationService) {
-        this.bidOrders = new TreeMap<>(Collections.reverseOrder()); 
-        // Prezzi più alti prima
-        this.askOrders = new TreeMap<>();                           
-        // Prezzi più bassi prima
-        this.bidStopOrders = new TreeMap<>();
-        this.askStopOrders = new TreeMap<>();
-        this.persistenceManager = persistenceManager;
-        this.notificationService = notificationService;
-    }
-
-
-// ============================================== METODI DI ACCESSO ==========================
-
-        // getters and setters prezzo mercato
-    private int getPrezzoMercato() 
-    { return prezzoMercato; }
-    private void setPrezzoMercato(int prezzoMercato) 
-    { this.prezzoMercato = prezzoMercato; }
-
-    private LimitOrder getBestBidOrder() {
-        if (bidOrders.isEmpty()) return null;
-        
-        Map.Entry<Integer, List<LimitOrder>> bestBidEntry = bidOrders.entrySet().iterator().next();
-        List<LimitOrder> orders = bestBidEntry.getValue();
-        
-        return orders.isEmpty() ? null : orders.get(0); // Time priority
-    }
-    
-    private LimitOrder getBestAskOrder() {
-        if (askOrders.isEmpty()) return null;
-        
-        Map.Entry<Integer, List<LimitOrder>> bestAskEntry = askOrders.entrySet().iterator().next();
-        List<LimitOrder> orders = bestAskEntry.getValue();
-        
-        return orders.isEmpty() ? null : orders.get(0); // Time priority
-    }
-    
-    private Integer getBestBidPrice() {
-        return bidOrders.isEmpty() ? null : bidOrders.keySet().iterator().next();
-    }
-    private Integer getBestAskPrice() {
-        return askOrders.isEmpty() ? null : askOrders.keySet().iterator().next();
-    }
-    
-    private int getBidAskSpread() {
-        synchronized (this) {
-            Integer bestBid = getBestBidPrice();
-            Integer bestAsk = getBestAskPrice();
-            
-            if (bestBid == null || bestAsk == null) {
-                return -1; // Non definito
-            }
-            
-            return bestAsk - bestBid;
-        }
-    }
-
-// ======================= AGGIUNGI ORDINI STOP E LIMIT ======================
-    
-    public boolean addLimitOrder(LimitOrder order) {
-        synchronized (this) {
-            Map<Integer, List<LimitOrder>> targetMap = (order.getSide() == OrderSide.BID) ? bidOrders : askOrders;
-            
-            int price = order.getLimitPrice();
-            
-            if (!targetMap.containsKey(price)) { 
-            // se non ho ancora ordini di questo prezzo, creo aray vuoto
-                targetMap.put(price, new ArrayList<>());
-            }
-            
-            targetMap.get(price).add(order);
-
-            // faccio partire algo matching
-            matchLimitOrders();
-            
-            return true;
-        }
-    }
-    
-    public boolean addStopOrder(StopOrder order) {
-        synchronized (this) {
-            Map<Integer, List<StopOrder>> targetMap = (order.getSide() == OrderSide.BID) ? bidStopOrders : askStopOrders;
-
-            int price = order.getLimitPrice();
-            
-            if (!targetMap.containsKey(price)) { 
-            // se non ho ancora ordini di questo prezzo, creo aray vuoto
-                targetMap.put(price, new ArrayList<>());
-            }
-            
-            targetMap.get(price).add(order);
-
-
-            // controllo se l'ordine è eseguibile (?)
-            if (order.getSide() == OrderSide.BID) checkBidStopOrders(getPrezzoMercato());
-            else checkAskStopOrders(getPrezzoMercato());
-        
-            return true;
-        }
-    }
-      
-// ========================== MARKET ORDER EXECUTION ===========================
-    
-    public boolean executeMarketOrder(MarketOrder marketOrder) {
-        synchronized (this) {
-            boolean executed = false;
-            
-            if (marketOrder.getSide() == OrderSide.BID) {
-                executed = matchBidOrder (marketOrder);
-            }
-            else {
-                executed = matchAskOrder (marketOrder);
-            }
-            return executed;
-        }
-    }
-    
-// ==================================== MATCHING ALGORITHM BID per market/stop attivato ===================
-
-    public boolean matchBidOrder(Order newBid)  // lo chiamo per marketorder o stoporder attivati
-    {
-        List<Trade> trades = new ArrayList<>(); // lista degli scambi fatti
-        List<LimitOrder> activatedLimitOrders = new ArrayList<>();
-        
-        // Cerco solo negli ASK orders (vendite)
-        for (Map.Entry<Integer, List<LimitOrder>> askEntry : askOrders.entrySet()) 
-        {
-            int askPrice = askEntry.getKey(); // questo è il prezzo migliore
-            List<LimitOrder> askOrdersAtPrice = askEntry.getValue(); //ordini al prezzo migliore
-            
-            // Scansiona tutti gli ASK a questo prezzo
-            Iterator<LimitOrder> iterator = askOrdersAtPrice.iterator();
-            while (iterator.hasNext() && newBid.getRemainingSize() > 0) 
-            {
-                Order askOrder = iterator.next(); // ask attuale
-                int tradeSize = Math.min(newBid.getRemainingSize(), askOrder.getRemainingSize());  // quanto effettivamente prendo dell'ordine
-                
-                // Crea il trade
-                Trade trade = new Trade(askOrder.getOrderId(), newBid.getOrderId(), tradeSize, askPrice, askOrder.getUsername(), newBid.getUsername());
-                trades.add(trade); 
-                
-                newBid.setRemainingSize(newBid.getRemainingSize() - tradeSize); // aggiorno taglia ordine
-                askOrder.setTempRemainingSize(askOrder.getRemainingSize() - tradeSize); // e ask (temporaneamente)
-                // aggiungo l'ask a una lista di ordini attivati, da finalizzare sse il market/stop ha successo
-                activatedLimitOrders.add((LimitOrder) askOrder);
-            }
-            if (newBid.getRemainingSize() <= 0) break; // Ordine completamente eseguito
-        }
-
-        if (newBid.getRemainingSize() > 0) 
-        {
-            return false;
-        }
-        // setto l'ordine come eseguito
-        newBid.setExecuted(true);
-        // setto gli ask come eseguiti del tutto o in parte
-        for (Order order : activatedLimitOrders)
-        {
-            order.setRemainingSize(order.getTempRemainingSize()); // aggiorno la size reale dell'order
-            // loggo l'ordine
-            persistenceManager.logOrderUpdate(order);
-            if (order.getRemainingSize() == 0)
-            {
-                order.setExecuted(true);
-                // rimuovo l'ordine dall'orderbook
-                persistenceManager.removeOrderFromBook(order);
-            }
-        }
-        
-        // loggo
-        persistenceManager.logOrderUpdate(newBid);
-        processTrades(trades);
-        // eseguo il matching per controllare se ora posso eseguire qualche limit order
-        matchLimitOrders();
-
-        return true;
-    }
-
-// ==================================== MATCHING ALGORITHM ASK per market/stop attivato ===================
-    public boolean matchAskOrder(Order newAsk)  // lo chiamo per marketorder o stoporder attivati
-    {
-        List<Trade> trades = new ArrayList<>(); // lista degli scambi fatti
-        List<LimitOrder> activatedLimitOrders = new ArrayList<>();
-        // int remainingSize = newAsk.getRemainingSize();
-        
-        // Cerco solo nei BID orders (acquisti)
-        for (Map.Entry<Integer, List<LimitOrder>> bidEntry : bidOrders.entrySet()) 
-        {
-            int bidPrice = bidEntry.getKey(); // questo è il prezzo migliore
-            List<LimitOrder> bidOrdersAtPrice = bidEntry.getValue(); //ordini al prezzo migliore
-            
-            // Scansiona tutti i BID a questo prezzo
-                Iterator<LimitOrder> iterator = bidOrdersAtPrice.iterator();
-                while (iterator.hasNext() && newAsk.getRemainingSize() > 0) 
-                {
-                    Order bidOrder = iterator.next(); // bid attuale
-                    int tradeSize = Math.min(newAsk.getRemainingSize(), bidOrder.getRemainingSize());  // quanto effettivamente prendo dell'ordine
-                    
-                    // Crea il trade
-                    Trade trade = new Trade(newAsk.getOrderId(), bidOrder.getOrderId(),tradeSize, bidPrice, newAsk.getUsername(), bidOrder.getUsername());
-                    trades.add(trade); 
-                    
-                    newAsk.setRemainingSize(newAsk.getRemainingSize()-tradeSize); // aggiorno taglia ordine - qua non importa usare temp, se ordine fallisce non ha effetti
-                    bidOrder.setTempRemainingSize(bidOrder.getRemainingSize()- tradeSize); // e bid (temporaneamente)
-                    // aggiungo il bid a una lista di ordini attivati, da cambiare sse il market/stop ha successo
-                    activatedLimitOrders.add(bidOrder);
-                    
-                }
-                if (newAsk.getRemainingSize() <= 0) break; // Ordine completamente eseguito
-        }
-
-        if (newAsk.getRemainingSize() > 0) 
-        {
-            return false;
-        }
-        // setto l'ordine come eseguito
-        newAsk.setExecuted(true);
-        // setto i bid come eseguiti del tutto o in parte
-        for (Order order : activatedLimitOrders) 
-        {
-            order.setRemainingSize(order.getTempRemainingSize()); // aggiorno la size reale dell'order
-            // loggo l'ordine
-            persistenceManager.logOrderUpdate(order);
-            if (order.getRemainingSize()==0)
-            {
-                order.setExecuted(true);
-                // rimuovo l'ordine dall'orderbook
-                persistenceManager.removeOrderFromBook(order);
-            }
-        }
-        
-        // loggo
-        persistenceManager.logOrderUpdate(newAsk);
-        processTrades(trades);
-        // eseguo il matching per controllare se ora posso eseguire qualche limit order
-        matchLimitOrders();
-
-        return true;
-    }
-  
-// ================================== PROCESS TRADES ==========================
-
-    /**
-     * Processa una lista di trade eseguiti e gestisce tutti gli effetti a cascata
-     */
-    public void processTrades(List<Trade> trades) {
-        if (trades == null || trades.isEmpty()) {
-            return;
-        }
-        
-        try {
-            
-            // ===  AGGIORNAMENTO PREZZO MERCATO (controlla automaticamente stop orders) ===
-            updatePrezzoMercato();
-
-            // === NOTIFICHE AI CLIENT ===
-            sendTradeNotifications(trades);
-            
-            // === PERSISTENZA DATI ===
-            persistenceManager.persistTrades(trades);
-            
-        } catch (Exception e) {
-            System.err.println("ERRORE nel processing trades: "
-             + e.getMessage());
-        }
-    }
-
-
-// ========================================= NOTIFICHE AI CLIENT ==============
-    private void sendTradeNotifications(List<Trade> trades) {
-        for (Trade trade : trades) {
-            notificationService.notifyBuyer(trade);
-            notificationService.notifySeller(trade);
-            
-        }
-    }
-  
-    
-
-// ======================== UPDATE PREZZO MERCATO E CHIAMATA CHECK STOP ORDERS ==========
-    private void updatePrezzoMercato() {
-        Integer bestBid = getBestBidPrice();
-        Integer bestAsk = getBestAskPrice();
-        Integer oldPrezzoMercato = getPrezzoMercato();
-        if (bestBid == null || bestAsk == null) {
-            // Non posso aggiornare il prezzo di mercato
-            return;
-        }
-        setPrezzoMercato((getBestBidPrice() + getBestAskPrice()) / 2);
-        if (bestBid != null && bestAsk != null) {
-            if (getPrezzoMercato() < oldPrezzoMercato) {
-                checkBidStopOrders(getPrezzoMercato());
-            } else if (getPrezzoMercato() > oldPrezzoMercato) {
-                checkAskStopOrders(getPrezzoMercato());
-            }
-        }
-    }
-    
-
-// ================================== CHECKS SU STOP ORDERS quando cambia prezzo di mercato ================
-
-
-    // da chiamare se prezzo di mercato diminuisce
-       private void checkBidStopOrders(int currentPrice) {
-        
-        Iterator<Map.Entry<Integer, List<StopOrder>>> iterator = 
-            bidStopOrders.entrySet().iterator();
-        
-        while (iterator.hasNext()) {
-            Map.Entry<Integer, List<StopOrder>> entry = iterator.next();
-            int stopPrice = entry.getKey();
-            
-            if (stopPrice <= currentPrice) {         // Con TreeMap crescente, itero finchè stopPrice <= currentPrice
-                // Tutti gli stop orders a questa soglia possono attivarsi
-                List<StopOrder> ordersAtPrice = entry.getValue();
-                Iterator<StopOrder> orderIterator = ordersAtPrice.iterator();
-                
-                while (orderIterator.hasNext()) {
-                    StopOrder stopOrder = orderIterator.next();
-                    if (!stopOrder.isExecuted()) {
-                        int result =  matchBidOrder(stopOrder);
-                    }
-                }
-                
-                // Se la lista a questo prezzo è vuota, 
-                // rimuovi la voce da TreeMap
-                if (ordersAtPrice.isEmpty()) {
-                    iterator.remove();
-                }
-                
-            } else {
-                // Map ordinata -> tutti succ hanno stopPrice > currentPrice
-                break;
-            }
-        }
-    }
-    // da chiamare se prezzo di mercato aumenta
-    private void checkAskStopOrders(int currentPrice) {
-
-        Iterator<Map.Entry<Integer, List<StopOrder>>> iterator = askStopOrders.entrySet().iterator();
-        
-        while (iterator.hasNext()) {
-            Map.Entry<Integer, List<StopOrder>> entry = iterator.next();
-            int stopPrice = entry.getKey();
-            
-            if (stopPrice >= currentPrice) {         // itero fino a che stopPrice >= currentPrice
-                // Tutti gli stop orders a questa soglia possono attivarsi
-                List<StopOrder> ordersAtPrice = entry.getValue();
-                Iterator<StopOrder> orderIterator = ordersAtPrice.iterator();
-                
-                while (orderIterator.hasNext()) {
-                    StopOrder stopOrder = orderIterator.next();
-                    if (!stopOrder.isExecuted()) {
-                        boolean done = matchAskOrder(stopOrder);
-                    }
-                }
-                
-                // Se la lista a questo prezzo è vuota, 
-                // rimuovi la voce da TreeMap
-                if (ordersAtPrice.isEmpty()) {
-                    iterator.remove();
-                }
-                
-            } else {
-				// Map ordinata -> tutti succ hanno stopPrice < currentPrice
-                break;
-            }
-        }
-    }
-
-//--------------------------------------- RIMOZIONE DI UN ORDINE GENERICO ----------------------
-//                          non la versione chiamata dall'utente, toglie gli ordini eseguiti
-    private void removeOrderFromBook(Order order) {
-        synchronized (this) {
-            if (order.isStopOrder())
-            {
-                // prendo la mappa di bid o ask
-                Map<Integer, List<StopOrder>> targetMap = (order.getSide() == OrderSide.BID) ? bidStopOrders : askStopOrders;
-            } 
-            else if (order.isLimitOrder()) 
-            {
-               Map<Integer, List<LimitOrder>> targetMap = (order.getSide() == OrderSide.BID) ? bidOrders : askOrders;
-            }
-
-
-            if (order.isStopOrder())
-            {
-                StopOrder stopOrder = (StopOrder) order;
-                int price = stopOrder.getStopPrice();
-                List<StopOrder> ordersAtPrice = targetMap.get(price);
-                if (ordersAtPrice != null) 
-                {
-                    // scorro la mappa con iterator
-                    Iterator<StopOrder> iterator = ordersAtPrice.iterator();
-                    while (iterator.hasNext()) {
-                        if (iterator.next().getOrderId() == order.getOrderId()) {
-                            iterator.remove();
-                            break;
-                        }
-                    }
-                    // se la lista a quel prezzo è vuota, rimuovo la voce dalla mappa
-                    if (ordersAtPrice.isEmpty()) {
-                        targetMap.remove(price);
-                    }
-                }
-            }
-            else if (order.isLimitOrder())
-            {
-                LimitOrder limitOrder = (LimitOrder) order;
-                int price = limitOrder.getLimitPrice();
-                List<LimitOrder> ordersAtPrice = targetMap.get(price);
-                if (ordersAtPrice != null) 
-                {
-                    // scorro la mappa con iterator
-                    Iterator<LimitOrder> iterator = ordersAtPrice.iterator();
-                    while (iterator.hasNext()) {
-                        if (iterator.next().getOrderId() == order.getOrderId()) {
-                            iterator.remove();
-                            break;
-                        }
-                    }
-                    // se la lista a quel prezzo è vuota, rimuovo la voce dalla mappa
-                    if (ordersAtPrice.isEmpty()) {
-                        targetMap.remove(price);
-                    }
-                }
-            }
-
-        }
-    }
-
-
-    
-// ========================================== CANCELLAZIONE ORDINI ========================
-    public int cancelOrder(long orderId, String username) {
-
-        synchronized (this) {
-            // Cerca nei BID orders
-            for (List<LimitOrder> orders : bidOrders.values()) {
-                Iterator<LimitOrder> iterator = orders.iterator();
-                while (iterator.hasNext()) 
-                {
-                    LimitOrder order = iterator.next();
-                    if (order.getOrderId() == orderId) {
-                        if (order.getUsername().equals(username)) {
-                            iterator.remove();
-                            persistenceManager.logOrderCancellation(order, username);
-                            // devo controllare se si attivano limitorder
-                            matchLimitOrders();
-                            return 100; // OK
-                        } else {
-                            return 101; // belongs to different user
-                        }
-                    }
-                }
-            }
-            
-            // Cerca negli ASK orders
-            for (List<LimitOrder> orders : askOrders.values()) {
-                Iterator<LimitOrder> iterator = orders.iterator();
-                while (iterator.hasNext()) 
-                {
-                    LimitOrder order = iterator.next();
-                    if (order.getOrderId() == orderId) {
-                        if (order.getUsername().equals(username)) 
-                        {
-                            iterator.remove();
-                            persistenceManager.logOrderCancellation(order, username);
-                            // devo controllare se si attivano limitorder
-                            matchLimitOrders();
-                            return 100; // OK
-                        } else {
-                            return 101; // belongs to different user
-                        }
-                    }
-                }
-            }
-            
-            // Cerca negli STOP orders, divisi in ask e bid
-            // Cerca nei BID stop orders
-            for (List<StopOrder> orders : bidStopOrders.values()) {
-                Iterator<StopOrder> iterator = orders.iterator();
-                while (iterator.hasNext()) 
-                {
-                    StopOrder order = iterator.next();
-                    if (order.getOrderId() == orderId) {
-                        if (order.getUsername().equals(username)) 
-                        {
-                            iterator.remove();
-                            persistenceManager.logOrderCancellation(order, username);
-                            return 100; // OK
-                        } else {
-                            return 101; // belongs to different user
-                        }
-                    }
-                }
-            }
-            
-            // Cerca negli ASK stop orders
-            for (List<StopOrder> orders : askStopOrders.values()) {
-                Iterator<StopOrder> iterator = orders.iterator();
-                while (iterator.hasNext()) 
-                {
-                    StopOrder order = iterator.next();
-                    if (order.getOrderId() == orderId) {
-                        if (order.getUsername().equals(username)) 
-                        {
-                            iterator.remove();
-                            persistenceManager.logOrderCancellation(order, username);
-                            return 100; // OK
-                        } else {
-                            return 101; // belongs to different user
-                        }
-                    }
-                }
-            }
-            return 101; // order does not exist or has already been finalized
-        }
-    }
-    
-
-
-// =================================================================== MATCHING LIMIT ORDERS =========================
-    public void matchLimitOrders() 
-    {
-        List<Trade> activatedTrades = new ArrayList<>();
-        boolean foundMatch;
-        
-        do {
-            foundMatch = false;
-            
-            // Prendi i MIGLIORI ordini da entrambi i lati
-            LimitOrder bestBid = getBestBidOrder();
-            LimitOrder bestAsk = getBestAskOrder();
-            
-            // Verifica se possono matchare
-            if (bestBid != null && bestAsk != null && 
-                bestBid.getLimitPrice() >= bestAsk.getLimitPrice()) {
-                
-                foundMatch = true;
-                
-                // Calcola quantità del trade
-                int tradeSize = Math.min(bestBid.getRemainingSize(), bestAsk.getRemainingSize());
-                int tradePrice = bestAsk.getLimitPrice(); // Prezzo del venditore
-                
-                // Crea il trade
-                Trade trade = new Trade( bestAsk.getOrderId(), bestBid.getOrderId(), tradeSize, tradePrice, bestAsk.getUsername(), bestBid.getUsername());
-                activatedTrades.add(trade);
-                
-                
-                // Aggiorna le quantità
-                bestBid.setRemainingSize(bestBid.getRemainingSize()-tradeSize); 
-                bestAsk.setRemainingSize(bestAsk.getRemainingSize()-tradeSize);
-                
-                // Gestisci ordini completati
-                if (bestBid.getRemainingSize()==0) { // bid completato, setto come eseguito e lo rimuovo - domanda: serve settare a eseguito (?)
-                    bestBid.setExecuted(true);
-                    persistenceManager.logOrderUpdate(bestBid);
-                    removeOrderFromBook(bestBid);
-                }
-                if (bestAsk.getRemainingSize()==0) {
-                    bestAsk.setExecuted(true);
-                    persistenceManager.logOrderUpdate(bestAsk);
-                    removeOrderFromBook(bestAsk);
-                }
-
-                // Se ordini non completati ma parzialmente eseguiti, aggiorna
-                if (bestBid.getRemainingSize() != 0) {
-                    persistenceManager.logOrderUpdate(bestBid);
-                }
-                if (bestAsk.getRemainingSize() != 0) {
-                    persistenceManager.logOrderUpdate(bestAsk);
-                }
-            }
-            
-        } while (foundMatch);
-        
-        // Processa tutti i trades trovati
-        if (!activatedTrades.isEmpty()) {
-            processTrades(activatedTrades); // cambia prezzo mercato, chiama controllo stoporder se serve, invia notifiche, logga trades
-        }
-
-        return;
-    }
-}
-
-
+package server;
+
+import shared.*; // riguarda (?)
+import server.*;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import java.util.*;
+import java.util.stream.Collectors;
+import java.io.IOException;
+import java.net.Socket; // per UserSession
+import java.util.Timer; // per i timer
+import java.util.TimerTask; // per i timer
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.locks.ReentrantLock;
+
+// ASK = vendere
+// BID = comprare
+
+public class OrderBook implements OrderEntry
+{
+    // BID orders: prezzi decrescenti (migliori offerte prime)
+    private BookSide<LimitOrder> bidOrders;
+    // ASK orders: prezzi crescenti (migliori richieste prime)  
+    private BookSide<LimitOrder> askOrders;
+    
+    // STOP orders, ordinati per "prossimo a scattare":
+    // BID stop (comprare) scattano quando il prezzo sale fino a stopPrice -> crescenti
+    // ASK stop (vendere) scattano quando il prezzo scende fino a stopPrice -> decrescenti
+    private BookSide<StopOrder> askStopOrders;
+    private BookSide<StopOrder> bidStopOrders;
+
+    // indice orderId -> nodo (handle) per tutti gli ordini limit e stop ancora nel book
+    private LongObjectMap<OrderNode<? extends Order>> ordersById;
+    // indice username -> ordini aperti dell'utente (lista collegata nei nodi, vedi OrderNode)
+    private final HashMap<String, UserOrders> ordersByUser = new HashMap<>();
+
+    // motore dei livelli di prezzo, da config: "treemap" (default) o "ladder"
+    private static final String BOOK_ENGINE = ServerConfig.getString("book_engine", "treemap");
+    private static final int LADDER_BASE_PRICE = ServerConfig.getInt("price_ladder_base_price", 0);
+    // banda di 65536 tick da price_ladder_base_price: va centrata sul prezzo dello strumento, fuori banda
+    // gli ordini vengono rifiutati
+    private static final int LADDER_LEVELS = ServerConfig.getInt("price_ladder_levels", 1 << 16);
+    
+    // stop attivati in attesa di esecuzione: la cascata è un ciclo, non una ricorsione.
+    // Restano negli indici finché non vengono eseguiti, quindi si possono ancora vedere e cancellare
+    private final ArrayDeque<StopOrder> pendingStops = new ArrayDeque<>();
+    private boolean runningCascade;
+    private final StopCascadeStats cascadeStats = new StopCascadeStats();
+    // massimo numero di stop eseguiti per evento, il resto passa all'evento successivo
+    private static final int STOP_CASCADE_BUDGET = ServerConfig.getInt("stop_cascade_budget", 1000);
+    // modalità locked: il resto della cascata lo continua questo thread (sotto bookLock), senza aspettare
+    // un altro evento sul book. In modalità single_writer lo fa il MatchingEngine quando è libero
+    private static final ExecutorService CASCADE_CONTINUATION = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "stop-cascade");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private boolean singleWriter;           // true se il book è posseduto da un MatchingEngine
+    private boolean continuationScheduled;  // una sola continuazione in coda per book
+
+    // trade riusati dal pool e liste pre-allocate riusate ad ogni match. Il matching non alloca a regime solo
+    // con pooled_matching=true e book_engine=ladder (il treemap boxa i prezzi). Restano fuori: notifiche e
+    // persistenza (allocano per ogni fill) e publishMarketData, che a ogni evento crea le nuove fotografie
+    // TopOfBook e DepthSnapshot (circa 560 byte per evento). Verifica: MatchingAllocationBenchmark
+    private static final boolean POOLED_MATCHING = ServerConfig.getBoolean("pooled_matching", false);
+    private static final int MATCH_BUFFER_SIZE = ServerConfig.getInt("match_buffer_size", 256);
+    private final TradePool tradePool;
+    private final ArrayList<Trade> marketTrades;  // trade di market/stop (matchBidOrder, matchAskOrder)
+    private final ArrayList<Trade> limitTrades;   // trade di matchLimitOrders
+
+    private final String symbol; // strumento trattato da questo book
+    private int prezzoMercato; // (best bid + best ask)/2
+    // ultima fotografia del top of book, letta senza lock da altri thread
+    private volatile TopOfBook topOfBook = TopOfBook.EMPTY;
+    // profondità L2 dei primi DEPTH_LEVELS livelli, ricostruita solo quando un lato cambia (copy on write)
+    private static final int DEPTH_LEVELS = ServerConfig.getInt("depth_levels", 10);
+    private volatile DepthSnapshot depthSnapshot = DepthSnapshot.EMPTY;
+    private long depthBidVersion = -1; // versioni dei lati usate per l'ultima fotografia
+    private long depthAskVersion = -1;
+    // trade prints pubblici, letti dal MarketDataPublisher
+    private static final int TRADE_TAPE_SIZE = ServerConfig.getInt("trade_tape_size", 4096);
+    private final TradeTape tradeTape = new TradeTape(TRADE_TAPE_SIZE);
+    // ogni top of book pubblicato, letto dal feed multicast
+    private static final int TOP_OF_BOOK_TAPE_SIZE = ServerConfig.getInt("top_of_book_tape_size", 4096);
+    private final TopOfBookTape topOfBookTape = new TopOfBookTape(TOP_OF_BOOK_TAPE_SIZE);
+    // report dei fill immediati dell'ordine in inserimento, null se non richiesto (vedi ExecutionReport)
+    private ExecutionReport executionReport;
+    // true durante un batch (applyBatch): market data pubblicati una volta sola alla fine
+    private boolean inBatch;
+
+    // lock del book in modalità locked. ReentrantLock e non synchronized: dentro si fa I/O (persistenza)
+    // e un thread virtuale che aspetta un monitor resterebbe bloccato sul suo carrier thread
+    private final ReentrantLock bookLock = new ReentrantLock();
+    private PersistenceManager persistenceManager;
+    private NotificationService notificationService;
+    
+    public OrderBook(String symbol, PersistenceManager persistenceManager, NotificationService notificationService) {
+        this.symbol = symbol;
+        this.bidOrders = createBookSide(true); 
+        // Prezzi più alti prima
+        this.askOrders = createBookSide(false);                           
+        // Prezzi più bassi prima
+        this.bidStopOrders = createBookSide(false);
+        this.askStopOrders = createBookSide(true);
+        this.ordersById = new LongObjectMap<>(1024);
+        this.tradePool = new TradePool(POOLED_MATCHING, MATCH_BUFFER_SIZE, MATCH_BUFFER_SIZE * 4);
+        this.marketTrades = new ArrayList<>(MATCH_BUFFER_SIZE);
+        this.limitTrades = new ArrayList<>(MATCH_BUFFER_SIZE);
+        this.persistenceManager = persistenceManager;
+        this.notificationService = notificationService;
+    }
+
+    private static <T extends Order> BookSide<T> createBookSide(boolean descending) {
+        if (BOOK_ENGINE.equalsIgnoreCase("ladder")) {
+            return new PriceLadderBookSide<>(LADDER_BASE_PRICE, LADDER_LEVELS, descending);
+        }
+        return new TreeMapBookSide<>(descending);
+    }
+
+
+// ============================================== METODI DI ACCESSO ==========================
+
+    public String getSymbol() { return symbol; }
+
+    public StopCascadeStats getCascadeStats() { return cascadeStats; }
+
+    // non prende il lock del book: ritorna l'ultima fotografia pubblicata
+    public TopOfBook getTopOfBook() { return topOfBook; }
+
+    // non prende il lock del book: ritorna l'ultima profondità pubblicata
+    public DepthSnapshot getDepthSnapshot() { return depthSnapshot; }
+
+    public static int getDepthLevels() { return DEPTH_LEVELS; }
+
+    public TradeTape getTradeTape() { return tradeTape; }
+
+    public TopOfBookTape getTopOfBookTape() { return topOfBookTape; }
+
+        // getters and setters prezzo mercato
+    private int getPrezzoMercato() 
+    { return prezzoMercato; }
+    private void setPrezzoMercato(int prezzoMercato) 
+    { this.prezzoMercato = prezzoMercato; }
+
+    private LimitOrder getBestBidOrder() {
+        PriceLevel<LimitOrder> bestLevel = bidOrders.bestLevel();
+        return (bestLevel == null) ? null : bestLevel.first(); // Time priority
+    }
+    
+    private LimitOrder getBestAskOrder() {
+        PriceLevel<LimitOrder> bestLevel = askOrders.bestLevel();
+        return (bestLevel == null) ? null : bestLevel.first(); // Time priority
+    }
+    
+    // -1 se non ci sono ordini su quel lato
+    private int getBestBidPrice() {
+        PriceLevel<LimitOrder> bestLevel = bidOrders.bestLevel();
+        return (bestLevel == null) ? -1 : bestLevel.getPrice();
+    }
+    private int getBestAskPrice() {
+        PriceLevel<LimitOrder> bestLevel = askOrders.bestLevel();
+        return (bestLevel == null) ? -1 : bestLevel.getPrice();
+    }
+    
+    public Order getOrderById(long orderId) {
+        bookLock.lock();
+        try {
+            OrderNode<? extends Order> node = ordersById.get(orderId);
+            return (node == null) ? null : node.getOrder();
+        } finally {
+            bookLock.unlock();
+        }
+    }
+
+    // letto dal top of book pubblicato, senza lock (-1 = non definito)
+    private int getBidAskSpread() {
+        return topOfBook.getSpread();
+    }
+
+// ======================= AGGIUNGI ORDINI STOP E LIMIT ======================
+    
+    public boolean addLimitOrder(LimitOrder order, ExecutionReport report) {
+        bookLock.lock();
+        try {
+            return addLimitOrderUnlocked(order, report);
+        } finally {
+            bookLock.unlock();
+        }
+    }
+
+    boolean addLimitOrderUnlocked(LimitOrder order, ExecutionReport report) {
+        executionReport = report;
+        try {
+            return addLimitOrderUnlocked(order);
+        } finally {
+            finishReport(order);
+        }
+    }
+
+    // versione senza lock: la usa direttamente il MatchingEngine, unico thread che tocca il book
+    boolean addLimitOrderUnlocked(LimitOrder order) {
+        BookSide<LimitOrder> targetSide = (order.getSide() == OrderSide.BID) ? bidOrders : askOrders;
+        
+        int price = order.getLimitPrice();
+        
+        // se non ho ancora ordini di questo prezzo, il livello viene creato
+        PriceLevel<LimitOrder> level = targetSide.getOrCreateLevel(price);
+        if (level == null) {
+            return false; // prezzo fuori dalla banda della scala prezzi
+        }
+        
+        indexOrder(level.append(order));
+
+        // faccio partire algo matching
+        matchLimitOrders();
+        runStopCascade();
+        publishMarketData();
+        
+        return true;
+    }
+    
+    public boolean addStopOrder(StopOrder order, ExecutionReport report) {
+        bookLock.lock();
+        try {
+            return addStopOrderUnlocked(order, report);
+        } finally {
+            bookLock.unlock();
+        }
+    }
+
+    // un nuovo stop ha fill immediati solo se il prezzo di mercato ha già raggiunto la soglia
+    boolean addStopOrderUnlocked(StopOrder order, ExecutionReport report) {
+        executionReport = report;
+        try {
+            return addStopOrderUnlocked(order);
+        } finally {
+            finishReport(order);
+        }
+    }
+
+    boolean addStopOrderUnlocked(StopOrder order) {
+        BookSide<StopOrder> targetSide = (order.getSide() == OrderSide.BID) ? bidStopOrders : askStopOrders;
+
+        int price = order.getStopPrice();
+
+        // se il prezzo di mercato ha già raggiunto lo stop, l'ordine scatta subito senza entrare nel book
+        if (isStopTriggered(order.getSide(), price, getPrezzoMercato())) {
+            boolean executed = executeTriggeredStop(order);
+            runStopCascade();
+            publishMarketData();
+            return executed;
+        }
+        
+        // se non ho ancora ordini di questo prezzo, il livello viene creato
+        PriceLevel<StopOrder> level = targetSide.getOrCreateLevel(price);
+        if (level == null) {
+            return false; // prezzo fuori dalla banda della scala prezzi
+        }
+        
+        indexOrder(level.append(order));
+    
+        return true;
+    }
+      
+// ========================== MARKET ORDER EXECUTION ===========================
+    
+    public boolean executeMarketOrder(MarketOrder marketOrder, ExecutionReport report) {
+        bookLock.lock();
+        try {
+            return executeMarketOrderUnlocked(marketOrder, report);
+        } finally {
+            bookLock.unlock();
+        }
+    }
+
+    boolean executeMarketOrderUnlocked(MarketOrder marketOrder, ExecutionReport report) {
+        executionReport = report;
+        try {
+            return executeMarketOrderUnlocked(marketOrder);
+        } finally {
+            finishReport(marketOrder);
+        }
+    }
+
+    boolean executeMarketOrderUnlocked(MarketOrder marketOrder) {
+        boolean executed = false;
+        
+        if (marketOrder.getSide() == OrderSide.BID) {
+            executed = matchBidOrder (marketOrder);
+        }
+        else {
+            executed = matchAskOrder (marketOrder);
+        }
+        runStopCascade();
+        publishMarketData();
+        return executed;
+    }
+    
+// ==================================== MATCHING ALGORITHM BID per market/stop attivato ===================
+
+    public boolean matchBidOrder(Order newBid)  // lo chiamo per marketorder o stoporder attivati
+    {
+        // tutto o niente: se gli ASK non bastano scarto subito, in O(1) e senza toccare nessun ordine
+        if (askOrders.totalVolume() < newBid.getRemainingSize())
+        {
+            return false;
+        }
+
+        List<Trade> trades = marketTrades; // lista degli scambi fatti (buffer riusato)
+        trades.clear();
+
+        // Cerco solo negli ASK orders (vendite): il volume basta, quindi eseguo direttamente
+        // partendo sempre dal primo ordine del livello migliore (gli ordini eseguiti del tutto escono dal book)
+        while (newBid.getRemainingSize() > 0)
+        {
+            PriceLevel<LimitOrder> askLevel = askOrders.bestLevel(); // questo è il prezzo migliore
+            OrderNode<LimitOrder> node = askLevel.head(); // ask più vecchio a questo prezzo
+            Order askOrder = node.getOrder(); // ask attuale
+            int tradeSize = Math.min(newBid.getRemainingSize(), askOrder.getRemainingSize());  // quanto effettivamente prendo dell'ordine
+            
+            // Crea il trade
+            Trade trade = tradePool.acquire(askOrder.getOrderId(), newBid.getOrderId(), tradeSize, askLevel.getPrice(), askOrder.getUsername(), newBid.getUsername());
+            trades.add(trade); 
+            recordFill(newBid, askOrder, tradeSize, askLevel.getPrice());
+            
+            newBid.setRemainingSize(newBid.getRemainingSize() - tradeSize); // aggiorno taglia ordine
+            askOrder.setRemainingSize(askOrder.getRemainingSize() - tradeSize); // e ask
+            askLevel.reduceRemaining(tradeSize); // e il totale del livello (e del lato)
+            // loggo l'ordine
+            persistenceManager.logOrderUpdate(askOrder);
+            if (askOrder.getRemainingSize() == 0)
+            {
+                askOrder.setExecuted(true);
+                // rimuovo l'ordine dall'orderbook
+                removeOrderFromBook(askOrder);
+            }
+        }
+
+        // setto l'ordine come eseguito
+        newBid.setExecuted(true);
+        
+        // loggo
+        persistenceManager.logOrderUpdate(newBid);
+        processTrades(trades);
+        // eseguo il matching per controllare se ora posso eseguire qualche limit order
+        matchLimitOrders();
+
+        return true;
+    }
+
+// ==================================== MATCHING ALGORITHM ASK per market/stop attivato ===================
+    public boolean matchAskOrder(Order newAsk)  // lo chiamo per marketorder o stoporder attivati
+    {
+        // tutto o niente: se i BID non bastano scarto subito, in O(1) e senza toccare nessun ordine
+        if (bidOrders.totalVolume() < newAsk.getRemainingSize())
+        {
+            return false;
+        }
+
+        List<Trade> trades = marketTrades; // lista degli scambi fatti (buffer riusato)
+        trades.clear();
+
+        // Cerco solo nei BID orders (acquisti): il volume basta, quindi eseguo direttamente
+        // partendo sempre dal primo ordine del livello migliore (gli ordini eseguiti del tutto escono dal book)
+        while (newAsk.getRemainingSize() > 0)
+        {
+            PriceLevel<LimitOrder> bidLevel = bidOrders.bestLevel(); // questo è il prezzo migliore
+            OrderNode<LimitOrder> node = bidLevel.head(); // bid più vecchio a questo prezzo
+            Order bidOrder = node.getOrder(); // bid attuale
+            int tradeSize = Math.min(newAsk.getRemainingSize(), bidOrder.getRemainingSize());  // quanto effettivamente prendo dell'ordine
+            
+            // Crea il trade
+            Trade trade = tradePool.acquire(newAsk.getOrderId(), bidOrder.getOrderId(), tradeSize, bidLevel.getPrice(), newAsk.getUsername(), bidOrder.getUsername());
+            trades.add(trade); 
+            recordFill(newAsk, bidOrder, tradeSize, bidLevel.getPrice());
+            
+            newAsk.setRemainingSize(newAsk.getRemainingSize() - tradeSize); // aggiorno taglia ordine
+            bidOrder.setRemainingSize(bidOrder.getRemainingSize() - tradeSize); // e bid
+            bidLevel.reduceRemaining(tradeSize); // e il totale del livello (e del lato)
+            // loggo l'ordine
+            persistenceManager.logOrderUpdate(bidOrder);
+            if (bidOrder.getRemainingSize() == 0)
+            {
+                bidOrder.setExecuted(true);
+                // rimuovo l'ordine dall'orderbook
+                removeOrderFromBook(bidOrder);
+            }
+        }
+
+        // setto l'ordine come eseguito
+        newAsk.setExecuted(true);
+        
+        // loggo
+        persistenceManager.logOrderUpdate(newAsk);
+        processTrades(trades);
+        // eseguo il matching per controllare se ora posso eseguire qualche limit order
+        matchLimitOrders();
+
+        return true;
+    }
+  
+// ================================== EXECUTION REPORT ==========================
+
+    // fill dell'ordine che ha generato l'evento corrente, se il client ha chiesto il report
+    private void recordFill(Order order, Order counterparty, int size, int price) {
+        if (executionReport != null && order.getOrderId() == executionReport.getOrderId()) {
+            executionReport.addFill(price, size, counterparty.getOrderId());
+        }
+    }
+
+    private void finishReport(Order order) {
+        if (executionReport != null) {
+            executionReport.setRemainingSize(order.getRemainingSize());
+            executionReport = null;
+        }
+    }
+
+// ================================== PROCESS TRADES ==========================
+
+    /**
+     * Processa una lista di trade eseguiti e gestisce tutti gli effetti a cascata
+     */
+    public void processTrades(List<Trade> trades) {
+        if (trades == null || trades.isEmpty()) {
+            return;
+        }
+        
+        try {
+            
+            // ===  AGGIORNAMENTO PREZZO MERCATO (mette in coda gli stop orders attivati) ===
+            updatePrezzoMercato();
+
+            // === TRADE PRINTS PUBBLICI (market data) ===
+            tradeTape.appendAll(trades);
+
+            // === NOTIFICHE AI CLIENT ===
+            sendTradeNotifications(trades);
+            
+            // === PERSISTENZA DATI ===
+            persistenceManager.persistTrades(trades);
+            
+        } catch (Exception e) {
+            System.err.println("ERRORE nel processing trades: "
+             + e.getMessage());
+        } finally {
+            // notifiche e persistenza hanno finito con i trade: tornano nel pool
+            releaseTrades(trades);
+        }
+    }
+
+    private void releaseTrades(List<Trade> trades) {
+        for (int i = 0; i < trades.size(); i++) {
+            tradePool.release(trades.get(i));
+        }
+        trades.clear();
+    }
+
+
+// ========================================= NOTIFICHE AI CLIENT ==============
+    private void sendTradeNotifications(List<Trade> trades) {
+        for (int i = 0; i < trades.size(); i++) {
+            Trade trade = trades.get(i);
+            notificationService.notifyBuyer(trade);
+            notificationService.notifySeller(trade);
+            
+        }
+    }
+  
+    
+
+// ======================== UPDATE PREZZO MERCATO E CHIAMATA CHECK STOP ORDERS ==========
+    private void updatePrezzoMercato() {
+        int bestBid = getBestBidPrice();
+        int bestAsk = getBestAskPrice();
+        int oldPrezzoMercato = getPrezzoMercato();
+        if (bestBid == -1 || bestAsk == -1) {
+            // Non posso aggiornare il prezzo di mercato
+            return;
+        }
+        setPrezzoMercato((bestBid + bestAsk) / 2);
+        if (getPrezzoMercato() != oldPrezzoMercato) {
+            checkStopOrders(getPrezzoMercato());
+        }
+    }
+    
+
+// ================================== PUBBLICAZIONE TOP OF BOOK E PROFONDITA' ================
+
+    // chiamato alla fine di ogni evento che può cambiare il book (dal thread che lo possiede).
+    // Alloca anche con pooled_matching: le fotografie sono immutabili e lette senza lock da altri thread
+    private void publishMarketData() {
+        if (inBatch) {
+            return; // lo fa applyBatchUnlocked alla fine
+        }
+        publishTopOfBook();
+        publishDepth();
+    }
+
+    // Crea una nuova fotografia solo se il top è cambiato, poi la pubblica con una scrittura volatile
+    private void publishTopOfBook() {
+        PriceLevel<LimitOrder> bestBid = bidOrders.bestLevel();
+        PriceLevel<LimitOrder> bestAsk = askOrders.bestLevel();
+        int bidPrice = (bestBid == null) ? -1 : bestBid.getPrice();
+        long bidSize = (bestBid == null) ? 0 : bestBid.getTotalRemaining();
+        int askPrice = (bestAsk == null) ? -1 : bestAsk.getPrice();
+        long askSize = (bestAsk == null) ? 0 : bestAsk.getTotalRemaining();
+
+        TopOfBook current = topOfBook;
+        if (current.sameAs(bidPrice, bidSize, askPrice, askSize, prezzoMercato)) {
+            return;
+        }
+        TopOfBook top = new TopOfBook(current.getSequence() + 1, bidPrice, bidSize, askPrice, askSize, prezzoMercato);
+        topOfBook = top;
+        topOfBookTape.append(top);
+    }
+
+    // Ricostruisce la profondità solo se almeno un lato ha cambiato versione dall'ultima volta
+    private void publishDepth() {
+        long bidVersion = bidOrders.version();
+        long askVersion = askOrders.version();
+        if (bidVersion == depthBidVersion && askVersion == depthAskVersion) {
+            return;
+        }
+        depthBidVersion = bidVersion;
+        depthAskVersion = askVersion;
+
+        DepthSnapshot.Side bids = DepthSnapshot.capture(bidOrders, DEPTH_LEVELS);
+        DepthSnapshot.Side asks = DepthSnapshot.capture(askOrders, DEPTH_LEVELS);
+        depthSnapshot = new DepthSnapshot(depthSnapshot.getSequence() + 1, bids, asks);
+    }
+
+// ================================== CHECKS SU STOP ORDERS quando cambia prezzo di mercato ================
+
+    // BID stop: scatta se il prezzo è salito fino allo stop; ASK stop: se è sceso fino allo stop
+    // prezzo 0 = mercato non ancora definito, nessuno stop può scattare
+    private static boolean isStopTriggered(OrderSide side, int stopPrice, int currentPrice) {
+        if (currentPrice <= 0) return false;
+        return (side == OrderSide.BID) ? stopPrice <= currentPrice : stopPrice >= currentPrice;
+    }
+
+    // I lati stop sono ordinati dal prossimo a scattare: gli stop attivati sono sempre una "testa" del lato
+    // (tutti i livelli dal migliore finchè la soglia è superata). Li tolgo dal book in un colpo solo
+    // e li metto in coda: li esegue runStopCascade, quindi il costo è proporzionale agli stop che scattano.
+    private void checkStopOrders(int currentPrice) {
+        drainTriggeredStops(bidStopOrders, OrderSide.BID, currentPrice, pendingStops);
+        drainTriggeredStops(askStopOrders, OrderSide.ASK, currentPrice, pendingStops);
+    }
+
+    private void drainTriggeredStops(BookSide<StopOrder> stopSide, OrderSide side, int currentPrice, Deque<StopOrder> triggeredStops) {
+        PriceLevel<StopOrder> level = stopSide.bestLevel();
+        
+        while (level != null && isStopTriggered(side, level.getPrice(), currentPrice)) {
+            // tutti gli stop a questa soglia si attivano, in ordine di arrivo
+            OrderNode<StopOrder> node = level.head();
+            while (node != null) {
+                OrderNode<StopOrder> nextNode = node.getNext();
+                node.unlink(); // esce dal livello ma resta indicizzato fino all'esecuzione (vedi runStopCascade)
+                triggeredStops.addLast(node.getOrder());
+                node = nextNode;
+            }
+            stopSide.removeLevel(level.getPrice());
+            level = stopSide.bestLevel();
+        }
+        // lato ordinato -> i livelli successivi non hanno ancora raggiunto la soglia
+    }
+
+// ================================== CASCATA DEGLI STOP ORDER ================
+
+    // Esegue gli stop in coda a "ondate": gli stop attivati dai trade di un'ondata finiscono in fondo alla coda
+    // e formano l'ondata successiva. Al massimo STOP_CASCADE_BUDGET esecuzioni per evento, così un evento
+    // non blocca il book per un tempo illimitato; il resto viene eseguito al prossimo evento o prima,
+    // appena il MatchingEngine è libero (vedi hasPendingStops) o dal thread di continuazione (modalità locked).
+    // Uno stop cancellato mentre era in coda non è più indicizzato e viene saltato.
+    void runStopCascade() {
+        if (runningCascade || pendingStops.isEmpty()) {
+            return;
+        }
+        runningCascade = true;
+        int depth = 0;
+        int executed = 0;
+        try {
+            while (!pendingStops.isEmpty() && executed < STOP_CASCADE_BUDGET) {
+                depth++;
+                int waveSize = pendingStops.size();
+                for (int i = 0; i < waveSize && executed < STOP_CASCADE_BUDGET; i++) {
+                    StopOrder stopOrder = pendingStops.pollFirst();
+                    if (unindexOrder(stopOrder.getOrderId()) == null) {
+                        continue; // cancellato mentre aspettava
+                    }
+                    executeTriggeredStop(stopOrder);
+                    executed++;
+                }
+            }
+        } finally {
+            runningCascade = false;
+        }
+        cascadeStats.record(depth, executed, pendingStops.size());
+        if (!pendingStops.isEmpty()) {
+            System.err.println("Budget cascata stop esaurito su " + symbol + ": " + cascadeStats);
+            scheduleContinuation();
+        }
+    }
+
+    // chiamato dal MatchingEngine prima di partire: la cascata la continua lui, non serve il thread di continuazione
+    void setSingleWriter() {
+        singleWriter = true;
+    }
+
+    private void scheduleContinuation() {
+        if (singleWriter || continuationScheduled) {
+            return;
+        }
+        continuationScheduled = true;
+        CASCADE_CONTINUATION.execute(() -> {
+            bookLock.lock();
+            try {
+                continuationScheduled = false;
+                runPendingStops();
+            } finally {
+                bookLock.unlock();
+            }
+        });
+    }
+
+    boolean hasPendingStops() {
+        return !pendingStops.isEmpty();
+    }
+
+    // usato dal MatchingEngine quando è libero: continua la cascata e pubblica il nuovo top of book
+    void runPendingStops() {
+        runStopCascade();
+        publishMarketData();
+    }
+
+    // uno stop attivato diventa un market order: se non è eseguibile per intero viene scartato
+    private boolean executeTriggeredStop(StopOrder stopOrder) {
+        boolean executed = (stopOrder.getSide() == OrderSide.BID) ? matchBidOrder(stopOrder) : matchAskOrder(stopOrder);
+        if (!executed) {
+            System.err.println("Stop order " + stopOrder.getOrderId() + " attivato ma non eseguibile, scartato");
+            persistenceManager.logOrderCancellation(stopOrder, "system");
+        }
+        return executed;
+    }
+
+//--------------------------------------- RIMOZIONE DI UN ORDINE GENERICO ----------------------
+//                          non la versione chiamata dall'utente, toglie gli ordini eseguiti
+    private void removeOrderFromBook(Order order) {
+        // chiamato sempre da metodi che hanno già il book (lock o thread del MatchingEngine)
+        OrderNode<? extends Order> node = unindexOrder(order.getOrderId());
+        if (node == null) {
+            return; // non è (più) nel book
+        }
+
+        // unlink O(1) dal livello, senza scorrere gli altri ordini
+        PriceLevel<? extends Order> ordersAtPrice = node.unlink();
+        if (ordersAtPrice == null || !ordersAtPrice.isEmpty()) {
+            return;
+        }
+
+        // se il livello a quel prezzo è vuoto, lo tolgo dal lato giusto
+        if (order.isStopOrder())
+        {
+            BookSide<StopOrder> targetSide = (order.getSide() == OrderSide.BID) ? bidStopOrders : askStopOrders;
+            targetSide.removeLevel(ordersAtPrice.getPrice());
+        } 
+        else if (order.isLimitOrder()) 
+        {
+            BookSide<LimitOrder> targetSide = (order.getSide() == OrderSide.BID) ? bidOrders : askOrders;
+            targetSide.removeLevel(ordersAtPrice.getPrice());
+        }
+    }
+
+
+    
+//--------------------------------------- INDICI DEGLI ORDINI NEL BOOK ----------------------
+//              ogni ordine limit o stop che entra nel book passa da qui, e da qui esce
+
+    private static final class UserOrders {
+        OrderNode<? extends Order> head;
+        OrderNode<? extends Order> tail;
+        int count;
+    }
+
+    private void indexOrder(OrderNode<? extends Order> node) {
+        Order order = node.getOrder();
+        ordersById.put(order.getOrderId(), node);
+
+        UserOrders userOrders = ordersByUser.get(order.getUsername());
+        if (userOrders == null) {
+            userOrders = new UserOrders();
+            ordersByUser.put(order.getUsername(), userOrders);
+        }
+        node.userPrev = userOrders.tail;
+        node.userNext = null;
+        if (userOrders.tail == null) {
+            userOrders.head = node;
+        } else {
+            userOrders.tail.userNext = node;
+        }
+        userOrders.tail = node;
+        userOrders.count++;
+    }
+
+    // toglie l'ordine da entrambi gli indici, ritorna il suo nodo (null se non era nel book)
+    private OrderNode<? extends Order> unindexOrder(long orderId) {
+        OrderNode<? extends Order> node = ordersById.remove(orderId);
+        if (node == null) {
+            return null;
+        }
+
+        String username = node.getOrder().getUsername();
+        UserOrders userOrders = ordersByUser.get(username);
+        if (userOrders != null) {
+            if (node.userPrev == null) {
+                userOrders.head = node.userNext;
+            } else {
+                node.userPrev.userNext = node.userNext;
+            }
+            if (node.userNext == null) {
+                userOrders.tail = node.userPrev;
+            } else {
+                node.userNext.userPrev = node.userPrev;
+            }
+            if (--userOrders.count == 0) {
+                ordersByUser.remove(username); // niente voci vuote per utenti senza ordini
+            }
+        }
+        node.userPrev = null;
+        node.userNext = null;
+        return node;
+    }
+
+
+// ========================================== ORDINI APERTI DI UN UTENTE ========================
+
+    public void listOpenOrders(String username, List<OpenOrder> out) {
+        bookLock.lock();
+        try {
+            listOpenOrdersUnlocked(username, out);
+        } finally {
+            bookLock.unlock();
+        }
+    }
+
+    // aggiunge a out una fotografia di ogni ordine aperto dell'utente, in ordine di inserimento.
+    // Costo proporzionale agli ordini dell'utente, non al book
+    void listOpenOrdersUnlocked(String username, List<OpenOrder> out) {
+        UserOrders userOrders = ordersByUser.get(username);
+        if (userOrders == null) {
+            return;
+        }
+        for (OrderNode<? extends Order> node = userOrders.head; node != null; node = node.userNext) {
+            out.add(new OpenOrder(symbol, node.getOrder()));
+        }
+    }
+
+    public int cancelAllOrders(String username) {
+        bookLock.lock();
+        try {
+            return cancelAllOrdersUnlocked(username);
+        } finally {
+            bookLock.unlock();
+        }
+    }
+
+    // cancella tutti gli ordini aperti dell'utente, ritorna quanti. Matching, market data e scritture
+    // su file una volta sola alla fine, come un batch di cancelOrder
+    int cancelAllOrdersUnlocked(String username) {
+        UserOrders userOrders = ordersByUser.get(username);
+        if (userOrders == null) {
+            return 0;
+        }
+
+        int cancelled = 0;
+        boolean limitRemoved = false;
+        persistenceManager.beginBatch();
+        try {
+            OrderNode<? extends Order> node = userOrders.head;
+            while (node != null) {
+                OrderNode<? extends Order> nextNode = node.userNext; // removeOrderFromBook azzera i puntatori
+                Order order = node.getOrder();
+                removeOrderFromBook(order);
+                persistenceManager.logOrderCancellation(order, username);
+                limitRemoved |= order.isLimitOrder();
+                cancelled++;
+                node = nextNode;
+            }
+            if (limitRemoved) {
+                // togliere ordini limit non crea incroci, ma cambia il top of book
+                publishMarketData();
+            }
+        } finally {
+            persistenceManager.endBatch();
+        }
+        return cancelled;
+    }
+
+
+// ========================================== CANCELLAZIONE ORDINI ========================
+    public int cancelOrder(long orderId, String username) {
+
+        bookLock.lock();
+        try {
+            return cancelOrderUnlocked(orderId, username);
+        } finally {
+            bookLock.unlock();
+        }
+    }
+
+    int cancelOrderUnlocked(long orderId, String username) {
+        // lookup diretto nell'indice, non scorro il book
+        OrderNode<? extends Order> node = ordersById.get(orderId);
+        if (node == null) {
+            return 101; // order does not exist or has already been finalized
+        }
+        Order order = node.getOrder();
+        if (!order.getUsername().equals(username)) {
+            return 101; // belongs to different user
+        }
+
+        removeOrderFromBook(order);
+        persistenceManager.logOrderCancellation(order, username);
+        if (order.isLimitOrder()) {
+            // togliere un ordine limit non crea incroci: nessun matching, cambia solo il top of book
+            publishMarketData();
+        }
+        return 100; // OK
+    }
+    
+
+
+// ========================================== BATCH DI ORDINI ========================
+
+    public void applyBatch(List<OrderBatch.Item> items, String username) {
+        bookLock.lock();
+        try {
+            applyBatchUnlocked(items, username);
+        } finally {
+            bookLock.unlock();
+        }
+    }
+
+    // tutti gli elementi in un solo turno: ognuno fa il suo matching e la sua cascata di stop come se fosse
+    // arrivato da solo, ma market data e scritture su file si fanno una volta sola alla fine
+    void applyBatchUnlocked(List<OrderBatch.Item> items, String username) {
+        inBatch = true;
+        persistenceManager.beginBatch();
+        try {
+            for (int i = 0; i < items.size(); i++) {
+                OrderBatch.Item item = items.get(i);
+                try {
+                    switch (item.type) {
+                        case OrderBatch.LIMIT:
+                            item.result = addLimitOrderUnlocked((LimitOrder) item.order, item.report) ? item.orderId : -1;
+                            break;
+                        case OrderBatch.MARKET:
+                            item.result = executeMarketOrderUnlocked((MarketOrder) item.order, item.report) ? item.orderId : -1;
+                            break;
+                        case OrderBatch.STOP:
+                            item.result = addStopOrderUnlocked((StopOrder) item.order, item.report) ? item.orderId : -1;
+                            break;
+                        case OrderBatch.CANCEL:
+                            item.result = cancelOrderUnlocked(item.orderId, username);
+                            break;
+                    }
+                } catch (Exception e) {
+                    System.err.println("Errore nell'elemento " + i + " del batch: " + e.getMessage());
+                }
+            }
+        } finally {
+            inBatch = false;
+            publishMarketData();
+            persistenceManager.endBatch();
+        }
+    }
+
+
+// =================================================================== MATCHING LIMIT ORDERS =========================
+    public void matchLimitOrders() 
+    {
+        List<Trade> activatedTrades = limitTrades; // buffer riusato
+        activatedTrades.clear();
+        boolean foundMatch;
+        
+        do {
+            foundMatch = false;
+            
+            // Prendi i MIGLIORI ordini da entrambi i lati
+            PriceLevel<LimitOrder> bestBidLevel = bidOrders.bestLevel();
+            PriceLevel<LimitOrder> bestAskLevel = askOrders.bestLevel();
+            LimitOrder bestBid = (bestBidLevel == null) ? null : bestBidLevel.first();
+            LimitOrder bestAsk = (bestAskLevel == null) ? null : bestAskLevel.first();
+            
+            // Verifica se possono matchare
+            if (bestBid != null && bestAsk != null && 
+                bestBid.getLimitPrice() >= bestAsk.getLimitPrice()) {
+                
+                foundMatch = true;
+                
+                // Calcola quantità del trade
+                int tradeSize = Math.min(bestBid.getRemainingSize(), bestAsk.getRemainingSize());
+                int tradePrice = bestAsk.getLimitPrice(); // Prezzo del venditore
+                
+                // Crea il trade
+                Trade trade = tradePool.acquire( bestAsk.getOrderId(), bestBid.getOrderId(), tradeSize, tradePrice, bestAsk.getUsername(), bestBid.getUsername());
+                activatedTrades.add(trade);
+                recordFill(bestBid, bestAsk, tradeSize, tradePrice);
+                recordFill(bestAsk, bestBid, tradeSize, tradePrice);
+                
+                
+                // Aggiorna le quantità
+                bestBid.setRemainingSize(bestBid.getRemainingSize()-tradeSize); 
+                bestAsk.setRemainingSize(bestAsk.getRemainingSize()-tradeSize);
+                bestBidLevel.reduceRemaining(tradeSize);
+                bestAskLevel.reduceRemaining(tradeSize);
+                
+                // Gestisci ordini completati
+                if (bestBid.getRemainingSize()==0) { // bid completato, setto come eseguito e lo rimuovo - domanda: serve settare a eseguito (?)
+                    bestBid.setExecuted(true);
+                    persistenceManager.logOrderUpdate(bestBid);
+                    removeOrderFromBook(bestBid);
+                }
+                if (bestAsk.getRemainingSize()==0) {
+                    bestAsk.setExecuted(true);
+                    persistenceManager.logOrderUpdate(bestAsk);
+                    removeOrderFromBook(bestAsk);
+                }
+
+                // Se ordini non completati ma parzialmente eseguiti, aggiorna
+                if (bestBid.getRemainingSize() != 0) {
+                    persistenceManager.logOrderUpdate(bestBid);
+                }
+                if (bestAsk.getRemainingSize() != 0) {
+                    persistenceManager.logOrderUpdate(bestAsk);
+                }
+            }
+            
+        } while (foundMatch);
+        
+        // Processa tutti i trades trovati
+        if (!activatedTrades.isEmpty()) {
+            processTrades(activatedTrades); // cambia prezzo mercato, chiama controllo stoporder se serve, invia notifiche, logga trades
+        }
+
+        return;
+    }
+}
+
+